@@ -1,118 +1,574 @@
-import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class Product {
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    private final int index = NEXT_INDEX.incrementAndGet();
     private String name;
-    private double price;
-    private int stock;
+    private volatile long priceMinor; // price in cents
+    private final AtomicInteger stock;
 
     public Product(String name, double price, int stock) {
         this.name  = name;
-        this.price = price;
-        this.stock = stock;
+        this.priceMinor = toMinor(price);
+        this.stock = new AtomicInteger(stock);
+    }
+
+    static long toMinor(double amount) {
+        return Math.round(amount * 100);
     }
 
-    public String getName()  { return name; }
-    public double getPrice() { return price; }
-    public int getStock()    { return stock; }
+    public int getIndex()        { return index; }
+    public String getName()      { return name; }
+    public double getPrice()     { return priceMinor / 100.0; }
+    public long getPriceMinor()  { return priceMinor; }
+    public int getStock()        { return stock.get(); }
 
     public void setName(String name)   { this.name = name; }
-    public void setPrice(double price) { this.price = price; }
-    public void setStock(int stock)    { this.stock = stock; }
+    public void setPrice(double price) { this.priceMinor = toMinor(price); }
+    public void setStock(int stock)    { this.stock.set(stock); }
 
     public void reduceStock(int quantity) {
-        this.stock -= quantity;
+        stock.addAndGet(-quantity);
     }
 
     public void restock(int quantity) {
-        this.stock += quantity;
+        stock.addAndGet(quantity);
+    }
+
+    // Takes the whole quantity or nothing; never lets stock go below zero.
+    public boolean tryReserve(int quantity) {
+        if (quantity < 0) throw new IllegalArgumentException("Negative quantity: " + quantity);
+        while (true) {
+            int current = stock.get();
+            if (current < quantity) return false;
+            if (stock.compareAndSet(current, current - quantity)) return true;
+        }
+    }
+
+    public void release(int quantity) {
+        restock(quantity);
     }
 
     @Override
     public String toString() {
-        return String.format("%s: price=%.2f, stock=%d", name, price, stock);
+        return String.format("%s: price=%.2f, stock=%d", name, getPrice(), stock.get());
     }
 }
 // InventoryManager.java
 
 
  class InventoryManager {
-    private HashMap<String, Product> inventory;
+    private final ConcurrentHashMap<String, Product> inventory;
 
     public InventoryManager() {
-        inventory = new HashMap<>();
+        inventory = new ConcurrentHashMap<>();
     }
 
     public void addProduct(Product product) {
         inventory.put(product.getName(), product);
     }
 
+    public void addProducts(Collection<? extends Product> products) {
+        for (Product product : products) {
+            inventory.put(product.getName(), product);
+        }
+    }
+
     public Product getProduct(String name) {
         return inventory.get(name);
     }
 
+    // Restocks each named product in place; returns the names that are not in the inventory.
+    public List<String> restockAll(Map<String, Integer> quantities) {
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : quantities.entrySet()) {
+            Product product = inventory.get(e.getKey());
+            if (product == null) {
+                missing.add(e.getKey());
+            } else {
+                product.restock(e.getValue());
+            }
+        }
+        return missing;
+    }
+
+    // Stock levels read while iterating; products added or sold meanwhile may or may not show up.
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        for (Product product : inventory.values()) {
+            levels.put(product.getName(), product.getStock());
+        }
+        return levels;
+    }
+
     public void printStock() {
         System.out.println("=== Current Inventory ===");
-        for (Map.Entry<String, Product> e : inventory.entrySet()) {
-            System.out.println(e.getValue());
+        for (Product product : inventory.values()) {
+            System.out.println(product);
         }
     }
 }
 
+interface SaleLineVisitor<T extends Product> {
+    void line(T product, int quantity, long unitPriceMinor);
+}
+
+// Line items live in an open-addressing table keyed by product index, with quantities and unit
+// prices (in cents, captured when the line is first added) in parallel primitive arrays.
  class Sale<T extends Product> {
-    private HashMap<T, Integer> items;
+    private int[] keys;
+    private int[] quantities;
+    private long[] prices;
+    private Product[] products;
+    private int size;
 
     public Sale() {
-        items = new HashMap<>();
+        keys = new int[4];
+        quantities = new int[4];
+        prices = new long[4];
+        products = new Product[4];
     }
 
     public void addItem(T product, int quantity) {
-        if (product.getStock() < quantity) {
+        if (!product.tryReserve(quantity)) {
             throw new IllegalArgumentException(
                     "Not enough stock for " + product.getName()
             );
         }
-        product.reduceStock(quantity);
 
-        items.merge(product, quantity, Integer::sum);
+        put(product, quantity);
     }
 
-    public double getTotalAmount() {
-        double total = 0.0;
-        for (Map.Entry<T, Integer> e : items.entrySet()) {
-            total += e.getKey().getPrice() * e.getValue();
+    // Adds every line or none: if any line fails, the lines already reserved are released.
+    public void addItems(Map<T, Integer> lines) {
+        List<T> reserved = new ArrayList<>(lines.size());
+        int[] amounts = new int[lines.size()];
+        try {
+            for (Map.Entry<T, Integer> line : lines.entrySet()) {
+                T product = line.getKey();
+                int quantity = line.getValue();
+                if (!product.tryReserve(quantity)) {
+                    throw new IllegalArgumentException(
+                            "Not enough stock for " + product.getName()
+                    );
+                }
+                amounts[reserved.size()] = quantity;
+                reserved.add(product);
+            }
+        } catch (RuntimeException e) {
+            // Covers short stock as well as bad lines (null or negative quantities).
+            for (int i = 0; i < reserved.size(); i++) {
+                reserved.get(i).release(amounts[i]);
+            }
+            throw e;
+        }
+        for (int i = 0; i < reserved.size(); i++) {
+            put(reserved.get(i), amounts[i]);
+        }
+    }
+
+    // For lines whose stock the caller has already reserved.
+    void addReserved(T product, int quantity) {
+        put(product, quantity);
+    }
+
+    private void put(Product product, int quantity) {
+        int slot = slot(keys, product.getIndex());
+        if (products[slot] != null) {
+            quantities[slot] += quantity;
+            return;
+        }
+        keys[slot] = product.getIndex();
+        quantities[slot] = quantity;
+        prices[slot] = product.getPriceMinor();
+        products[slot] = product;
+        if (++size * 4 > keys.length * 3) grow();
+    }
+
+    private static int slot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9E3779B9;
+        int i = (h ^ h >>> 16) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldQuantities = quantities;
+        long[] oldPrices = prices;
+        Product[] oldProducts = products;
+        int capacity = oldKeys.length * 2;
+        keys = new int[capacity];
+        quantities = new int[capacity];
+        prices = new long[capacity];
+        products = new Product[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldProducts[i] == null) continue;
+            int slot = slot(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            quantities[slot] = oldQuantities[i];
+            prices[slot] = oldPrices[i];
+            products[slot] = oldProducts[i];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachLine(SaleLineVisitor<? super T> visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (products[i] != null) visitor.line((T) products[i], quantities[i], prices[i]);
+        }
+    }
+
+    public int getLineCount() {
+        return size;
+    }
+
+    public Map<T, Integer> getItems() {
+        Map<T, Integer> items = new LinkedHashMap<>();
+        forEachLine((product, quantity, price) -> items.put(product, quantity));
+        return Collections.unmodifiableMap(items);
+    }
+
+    public long getTotalMinor() {
+        long total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (products[i] != null) total += quantities[i] * prices[i];
         }
         return total;
     }
+
+    public double getTotalAmount() {
+        return getTotalMinor() / 100.0;
+    }
 }
 
 
+// Revenue bucketed by time slot in a fixed ring. Each bucket is stamped with its slot; when a newer
+// slot arrives, a fresh bucket is swapped in with a CAS, so recording never takes a lock.
+class RevenueWindow {
+    private static final class Bucket {
+        final long slot;
+        final LongAdder sum = new LongAdder();
+
+        Bucket(long slot) {
+            this.slot = slot;
+        }
+    }
+
+    private final long bucketMillis;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    public RevenueWindow(long bucketMillis, int buckets) {
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicReferenceArray<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            this.buckets.set(i, new Bucket(-1));
+        }
+    }
+
+    public void add(long timeMillis, long amount) {
+        long slot = timeMillis / bucketMillis;
+        int i = (int) (slot % buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.slot == slot) {
+                bucket.sum.add(amount);
+                return;
+            }
+            if (bucket.slot > slot) return; // older than the ring covers
+            Bucket fresh = new Bucket(slot);
+            fresh.sum.add(amount);
+            if (buckets.compareAndSet(i, bucket, fresh)) return;
+        }
+    }
+
+    // Revenue in the given number of most recent buckets, counting the one containing nowMillis.
+    public long total(long nowMillis, int count) {
+        long newest = nowMillis / bucketMillis;
+        long oldest = newest - Math.min(count, buckets.length()) + 1;
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.slot >= oldest && bucket.slot <= newest) total += bucket.sum.sum();
+        }
+        return total;
+    }
+}
+
 class SalesManager<T extends Product> {
-    private List<Sale<T>> sales;
+    private final LongAdder saleCount = new LongAdder();
+    private final LongAdder totalMinor = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> revenueByProduct = new ConcurrentHashMap<>();
+    private final RevenueWindow perMinute = new RevenueWindow(TimeUnit.MINUTES.toMillis(1), 60);
+    private final RevenueWindow perHour = new RevenueWindow(TimeUnit.HOURS.toMillis(1), 24);
 
     public SalesManager() {
-        sales = new ArrayList<>();
     }
 
     public void recordSale(Sale<T> sale) {
-        sales.add(sale);
+        recordSale(sale, System.currentTimeMillis());
+    }
+
+    // Folds the sale into the running totals; nothing keeps a reference to it afterwards.
+    public void recordSale(Sale<T> sale, long timeMillis) {
+        sale.forEachLine((product, quantity, price) ->
+                revenueByProduct.computeIfAbsent(product.getName(), k -> new LongAdder()).add(quantity * price));
+        long amount = sale.getTotalMinor();
+        totalMinor.add(amount);
+        perMinute.add(timeMillis, amount);
+        perHour.add(timeMillis, amount);
+        saleCount.increment();
+    }
+
+    public long getDailyTotalMinor() {
+        return totalMinor.sum();
     }
 
     public double getDailyTotal() {
-        return sales.stream()
-                .mapToDouble(Sale::getTotalAmount)
-                .sum();
+        return totalMinor.sum() / 100.0;
+    }
+
+    public double getProductRevenue(String productName) {
+        LongAdder revenue = revenueByProduct.get(productName);
+        return revenue == null ? 0.0 : revenue.sum() / 100.0;
+    }
+
+    public Map<String, Double> getRevenueByProduct() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> e : revenueByProduct.entrySet()) {
+            result.put(e.getKey(), e.getValue().sum() / 100.0);
+        }
+        return result;
+    }
+
+    // Up to the last 60 minutes.
+    public double getLastMinutesTotal(int minutes) {
+        return perMinute.total(System.currentTimeMillis(), minutes) / 100.0;
+    }
+
+    // Up to the last 24 hours.
+    public double getLastHoursTotal(int hours) {
+        return perHour.total(System.currentTimeMillis(), hours) / 100.0;
     }
 
     public void printSummary() {
         System.out.println("=== Daily Sales Summary ===");
-        System.out.println("Number of sales: " + sales.size());
+        System.out.println("Number of sales: " + saleCount.sum());
         System.out.printf("Total revenue: %.2f%n", getDailyTotal());
+        System.out.printf("Last hour: %.2f%n", getLastMinutesTotal(60));
+    }
+}
+// Checkout pipeline with a single writer. Producers claim a sequence with a CAS, fill the
+// preallocated slot and publish it; one consumer thread applies the stock changes for every
+// published slot in a batch, then completes each order's future and frees the slots.
+class OrderEngine<T extends Product> implements AutoCloseable {
+    private static final long CLOSED = 1L << 62;
+    private static final int SPINS = 1000;
+
+    private final int mask;
+    private final OrderSlot<T>[] slots;
+    private final AtomicLongArray published;
+    private final AtomicLong next = new AtomicLong();
+    private final SalesManager<T> sales;
+    private final Thread consumer;
+    private volatile long consumed;
+    private volatile boolean waiting;
+
+    private static final class OrderSlot<T extends Product> {
+        Product[] products = new Product[4];
+        int[] quantities = new int[4];
+        int lines;
+        CompletableFuture<Sale<T>> future;
+    }
+
+    // capacity is rounded up to a power of two; sales may be null.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OrderEngine(int capacity, SalesManager<T> sales) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = (OrderSlot<T>[]) new OrderSlot[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new OrderSlot<>();
+            published.set(i, -1);
+        }
+        this.sales = sales;
+        this.consumer = new Thread(this::run, "order-engine");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public CompletableFuture<Sale<T>> submit(T product, int quantity) {
+        Objects.requireNonNull(product, "product");
+        long seq = claim();
+        OrderSlot<T> slot = slots[(int) seq & mask];
+        slot.products[0] = product;
+        slot.quantities[0] = quantity;
+        slot.lines = 1;
+        return publish(seq, slot);
+    }
+
+    // The order succeeds only if every line can be reserved.
+    public CompletableFuture<Sale<T>> submit(Map<T, Integer> lines) {
+        // Copied before claiming: a claimed sequence must always be published or the consumer stalls.
+        Product[] products = new Product[lines.size()];
+        int[] quantities = new int[lines.size()];
+        int n = 0;
+        for (Map.Entry<T, Integer> line : lines.entrySet()) {
+            products[n] = Objects.requireNonNull(line.getKey(), "product");
+            quantities[n++] = Objects.requireNonNull(line.getValue(), "quantity");
+        }
+        long seq = claim();
+        OrderSlot<T> slot = slots[(int) seq & mask];
+        if (slot.products.length < n) {
+            slot.products = new Product[n];
+            slot.quantities = new int[n];
+        }
+        System.arraycopy(products, 0, slot.products, 0, n);
+        System.arraycopy(quantities, 0, slot.quantities, 0, n);
+        slot.lines = n;
+        return publish(seq, slot);
+    }
+
+    private long claim() {
+        int spins = 0;
+        while (true) {
+            long seq = next.get();
+            if ((seq & CLOSED) != 0) throw new IllegalStateException("Order engine is closed");
+            if (seq - slots.length >= consumed) {
+                // Ring is full: wait for the consumer to free a slot.
+                if (waiting) LockSupport.unpark(consumer);
+                if (++spins < SPINS) Thread.onSpinWait();
+                else LockSupport.parkNanos(1000);
+                continue;
+            }
+            if (next.compareAndSet(seq, seq + 1)) return seq;
+        }
+    }
+
+    private CompletableFuture<Sale<T>> publish(long seq, OrderSlot<T> slot) {
+        CompletableFuture<Sale<T>> future = new CompletableFuture<>();
+        slot.future = future;
+        published.set((int) seq & mask, seq);
+        if (waiting) LockSupport.unpark(consumer);
+        return future;
+    }
+
+    private void run() {
+        long seq = 0;
+        int idle = 0;
+        while (true) {
+            long end = seq;
+            while (end - seq < slots.length && published.get((int) end & mask) == end) end++;
+            if (end == seq) {
+                long claimed = next.get();
+                if ((claimed & CLOSED) != 0 && (claimed & ~CLOSED) == seq) return;
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    waiting = true;
+                    if (published.get((int) seq & mask) != seq) LockSupport.parkNanos(100_000);
+                    waiting = false;
+                }
+                continue;
+            }
+            idle = 0;
+            List<CompletableFuture<Sale<T>>> futures = new ArrayList<>((int) (end - seq));
+            List<Object> results = new ArrayList<>((int) (end - seq));
+            for (long s = seq; s < end; s++) {
+                OrderSlot<T> slot = slots[(int) s & mask];
+                futures.add(slot.future);
+                results.add(apply(slot));
+                slot.future = null;
+                Arrays.fill(slot.products, 0, slot.lines, null);
+            }
+            // Slots are handed back before the futures run, so callbacks can submit again.
+            consumed = end;
+            seq = end;
+            for (int i = 0; i < futures.size(); i++) {
+                Object result = results.get(i);
+                if (result instanceof Sale) {
+                    @SuppressWarnings("unchecked")
+                    Sale<T> sale = (Sale<T>) result;
+                    futures.get(i).complete(sale);
+                } else {
+                    futures.get(i).completeExceptionally((Throwable) result);
+                }
+            }
+        }
+    }
+
+    // Returns the completed Sale, or the exception to fail the order with.
+    @SuppressWarnings("unchecked")
+    private Object apply(OrderSlot<T> slot) {
+        for (int i = 0; i < slot.lines; i++) {
+            RuntimeException failure = null;
+            try {
+                if (!slot.products[i].tryReserve(slot.quantities[i])) {
+                    failure = new IllegalArgumentException("Not enough stock for " + slot.products[i].getName());
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            if (failure != null) {
+                for (int j = 0; j < i; j++) {
+                    slot.products[j].release(slot.quantities[j]);
+                }
+                return failure;
+            }
+        }
+        Sale<T> sale = new Sale<>();
+        for (int i = 0; i < slot.lines; i++) {
+            sale.addReserved((T) slot.products[i], slot.quantities[i]);
+        }
+        if (sales != null) {
+            // The stock is already taken, so the order stands even if recording it fails.
+            try {
+                sales.recordSale(sale);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to record sale: " + e);
+            }
+        }
+        return sale;
+    }
+
+    // Processes every order already submitted, then stops the consumer.
+    @Override
+    public void close() {
+        while (true) {
+            long seq = next.get();
+            if ((seq & CLOSED) != 0 || next.compareAndSet(seq, seq | CLOSED)) break;
+        }
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
+
 class Test {
     public static void main(String[] args) {
         InventoryManager inventory = new InventoryManager();
@@ -1,17 +1,45 @@
 // JournalEntry.java
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 class JournalEntry implements Serializable {
+    // Pinned to the value the class had before timestamp was serialized, so older files still load.
+    private static final long serialVersionUID = -1125771414627508098L;
     private String title;
     private String content;
-    private transient LocalDateTime timestamp;
+    private LocalDateTime timestamp;
 
     public JournalEntry(String title, String content) {
+        this(title, content, LocalDateTime.now());
+    }
+
+    public JournalEntry(String title, String content, LocalDateTime timestamp) {
         this.title = title;
         this.content = content;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
     }
 
     public String getTitle() {
@@ -42,15 +70,1480 @@ class JournalEntry implements Serializable {
     }
 }
 
+// Record layout: int title length, UTF-8 title, int content length, UTF-8 content, long epoch millis.
+// A length of -1 stands for null; Long.MIN_VALUE stands for a missing timestamp.
+class JournalRecordCodec {
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    static byte[] encode(JournalEntry entry) {
+        byte[] title = bytes(entry.getTitle());
+        byte[] content = bytes(entry.getContent());
+        ByteBuffer buf = ByteBuffer.allocate(16 + length(title) + length(content));
+        put(buf, title);
+        put(buf, content);
+        buf.putLong(toMillis(entry.getTimestamp()));
+        return buf.array();
+    }
+
+    static JournalEntry decode(ByteBuffer buf) {
+        String title = string(buf);
+        String content = string(buf);
+        return new JournalEntry(title, content, fromMillis(buf.getLong()));
+    }
+
+    static long toMillis(LocalDateTime timestamp) {
+        return timestamp == null ? NO_TIMESTAMP : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        if (millis == NO_TIMESTAMP) return null;
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] b) {
+        return b == null ? 0 : b.length;
+    }
+
+    private static void put(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(b.length);
+            buf.put(b);
+        }
+    }
+
+    private static String string(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0) return null;
+        if (buf.hasArray()) {
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+            return s;
+        }
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
+
+// File layout: header (magic, version, entry count, offset of the offset table), the records,
+// then one long offset per record. The table sits at the end so entries can be streamed out.
+class JournalFile {
+    static final int MAGIC = 0x4A524E4C;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    public static boolean isJournalFile(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void write(List<JournalEntry> entries, String filename) throws IOException {
+        String tmp = filename + ".tmp";
+        long[] offsets = new long[entries.size()];
+        try (FileChannel ch = FileChannel.open(Paths.get(tmp), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = HEADER_SIZE;
+            ch.position(pos);
+            for (int i = 0; i < offsets.length; i++) {
+                byte[] record = JournalRecordCodec.encode(entries.get(i));
+                offsets[i] = pos;
+                writeFully(ch, ByteBuffer.wrap(record));
+                pos += record.length;
+            }
+            ByteBuffer table = ByteBuffer.allocate(8 * 8192);
+            for (long off : offsets) {
+                if (!table.hasRemaining()) {
+                    table.flip();
+                    writeFully(ch, table);
+                    table.clear();
+                }
+                table.putLong(off);
+            }
+            table.flip();
+            writeFully(ch, table);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(offsets.length).putInt(0).putLong(pos).flip();
+            ch.position(0);
+            writeFully(ch, header);
+            ch.force(true);
+        }
+        // Written aside and renamed, so a journal mapped from the same file stays readable.
+        Files.move(Paths.get(tmp), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+}
+
+// Read-only view of a journal file. The file is memory-mapped and each entry is decoded only when
+// it is accessed. Entries added afterwards are kept in memory until the journal is saved again.
+class MappedJournal extends AbstractList<JournalEntry> implements RandomAccess {
+    private static final long CHUNK_SIZE = 1L << 30;
+    private final MappedByteBuffer[] chunks;
+    private final int count;
+    private final long tableOffset;
+    private final List<JournalEntry> appended = new ArrayList<>();
+
+    private MappedJournal(MappedByteBuffer[] chunks) throws IOException {
+        this.chunks = chunks;
+        if (chunks.length == 0 || readInt(0) != JournalFile.MAGIC || readInt(4) != JournalFile.VERSION) {
+            throw new IOException("Not a journal file");
+        }
+        this.count = readInt(8);
+        this.tableOffset = readLong(16);
+    }
+
+    public static MappedJournal open(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = ch.size();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+            return new MappedJournal(chunks);
+        }
+    }
+
+    @Override
+    public int size() {
+        return count + appended.size();
+    }
+
+    @Override
+    public JournalEntry get(int index) {
+        if (index >= count) {
+            return appended.get(index - count);
+        }
+        if (index < 0) throw new IndexOutOfBoundsException("Index: " + index);
+        long start = readLong(tableOffset + 8L * index);
+        long end = index + 1 < count ? readLong(tableOffset + 8L * (index + 1)) : tableOffset;
+        return JournalRecordCodec.decode(slice(start, (int) (end - start)));
+    }
+
+    @Override
+    public boolean add(JournalEntry entry) {
+        return appended.add(entry);
+    }
+
+    private ByteBuffer slice(long pos, int len) {
+        int chunk = (int) (pos / CHUNK_SIZE);
+        int off = (int) (pos % CHUNK_SIZE);
+        if (off + len <= chunks[chunk].limit()) {
+            return chunks[chunk].duplicate().position(off).limit(off + len).slice();
+        }
+        // Record straddles two mappings; copy it out.
+        byte[] copy = new byte[len];
+        for (int done = 0; done < len; ) {
+            ByteBuffer src = chunks[(int) ((pos + done) / CHUNK_SIZE)].duplicate();
+            src.position((int) ((pos + done) % CHUNK_SIZE));
+            int n = Math.min(len - done, src.remaining());
+            src.get(copy, done, n);
+            done += n;
+        }
+        return ByteBuffer.wrap(copy);
+    }
+
+    private int readInt(long pos) {
+        return slice(pos, 4).getInt();
+    }
+
+    private long readLong(long pos) {
+        return slice(pos, 8).getLong();
+    }
+}
+
+// Append-only log of journal entries. Each frame is [int length][int CRC32 of payload][payload].
+// Writers append under a lock and then wait for durability; whichever waiter finds no sync in
+// progress becomes the leader, optionally lingers for maxDelayMillis so more writers can join, and
+// issues one force() that covers every frame written so far.
+class JournalWal implements Closeable {
+    private final FileChannel channel;
+    private final long maxDelayNanos;
+    private final Object syncLock = new Object();
+    private final List<JournalEntry> recovered = new ArrayList<>();
+    private volatile long written;
+    private long synced;
+    private boolean syncing;
+
+    public JournalWal(String filename, long maxDelayMillis) throws IOException {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    public List<JournalEntry> recoveredEntries() {
+        return recovered;
+    }
+
+    // Replays frames up to the first torn or corrupt one and cuts the file there.
+    private void recover() throws IOException {
+        long size = channel.size();
+        long pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(8);
+        CRC32 crc = new CRC32();
+        while (pos + 8 <= size) {
+            header.clear();
+            readFully(pos, header);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || pos + 8 + length > size) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(pos + 8, payload);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break;
+            payload.flip();
+            recovered.add(JournalRecordCodec.decode(payload));
+            pos += 8 + length;
+        }
+        if (pos < size) {
+            channel.truncate(pos);
+        }
+        channel.position(pos);
+        written = pos;
+        synced = pos;
+    }
+
+    private void readFully(long pos, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new EOFException();
+        }
+    }
+
+    // Writes the frame without waiting for it to reach disk; returns the position sync() must cover.
+    public synchronized long write(JournalEntry entry) throws IOException {
+        byte[] payload = JournalRecordCodec.encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (frame.hasRemaining()) channel.write(frame);
+        written = channel.position();
+        return written;
+    }
+
+    public void append(JournalEntry entry) throws IOException {
+        sync(write(entry));
+    }
+
+    public void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            while (synced < position && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for journal sync");
+                }
+            }
+            if (synced >= position) return;
+            syncing = true;
+        }
+        long upTo = position;
+        try {
+            if (maxDelayNanos > 0) {
+                LockSupport.parkNanos(maxDelayNanos);
+            }
+            upTo = written;
+            channel.force(false);
+        } catch (IOException e) {
+            upTo = -1;
+            throw e;
+        } finally {
+            synchronized (syncLock) {
+                if (upTo > synced) synced = upTo;
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    // Drops every frame once the entries they hold are safely saved elsewhere.
+    public void checkpoint() throws IOException {
+        synchronized (syncLock) {
+            // A leader mid-force holds a pre-truncate position; let it publish before resetting,
+            // and keep new leaders out until the log is empty.
+            while (syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for journal sync");
+                }
+            }
+            syncing = true;
+        }
+        try {
+            synchronized (this) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+                written = 0;
+            }
+        } finally {
+            synchronized (syncLock) {
+                synced = 0;
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync(written);
+        synchronized (this) {
+            channel.close();
+        }
+    }
+}
+
+// Entry storage outside the Java heap. Encoded records live in large direct (or file-mapped)
+// segments; the heap only holds one long handle per entry (segment number and offset), and
+// get() decodes a fresh JournalEntry on each call. Changes made to a returned entry are not stored.
+class OffHeapEntryList extends AbstractList<JournalEntry> implements RandomAccess, Closeable {
+    private static final int SEGMENT_SIZE = 4 << 20;
+    private final FileChannel backing;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private long[] handles = new long[1024];
+    private int size;
+    private long backingEnd;
+
+    public OffHeapEntryList() {
+        this.backing = null;
+    }
+
+    public OffHeapEntryList(String backingFile) throws IOException {
+        this.backing = FileChannel.open(Paths.get(backingFile), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public JournalEntry get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index);
+        long handle = handles[index];
+        ByteBuffer record = segments.get((int) (handle >>> 32)).duplicate();
+        int offset = (int) handle;
+        int length = record.getInt(offset);
+        record.limit(offset + 4 + length).position(offset + 4);
+        return JournalRecordCodec.decode(record.slice());
+    }
+
+    @Override
+    public boolean add(JournalEntry entry) {
+        byte[] record = JournalRecordCodec.encode(entry);
+        int needed = 4 + record.length;
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.remaining() < needed) {
+            segment = newSegment(Math.max(SEGMENT_SIZE, needed));
+        }
+        if (size == handles.length) handles = Arrays.copyOf(handles, size * 2);
+        handles[size++] = ((long) (segments.size() - 1) << 32) | segment.position();
+        segment.putInt(record.length).put(record);
+        modCount++;
+        return true;
+    }
+
+    private ByteBuffer newSegment(int capacity) {
+        ByteBuffer segment;
+        if (backing == null) {
+            segment = ByteBuffer.allocateDirect(capacity);
+        } else {
+            try {
+                segment = backing.map(FileChannel.MapMode.READ_WRITE, backingEnd, capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            backingEnd += capacity;
+        }
+        segments.add(segment);
+        return segment;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (backing != null) backing.close();
+    }
+}
+
+// Compression used for the blocks of an exported journal. The id is stored in the file header
+// so the reader can pick the matching codec.
+interface BlockCodec {
+    int id();
+
+    byte[] compress(byte[] raw, int length);
+
+    void decompress(byte[] compressed, byte[] raw) throws IOException;
+
+    static BlockCodec forId(int id) throws IOException {
+        switch (id) {
+            case StoredBlockCodec.ID:
+                return new StoredBlockCodec();
+            case DeflateBlockCodec.ID:
+                return new DeflateBlockCodec();
+            default:
+                throw new IOException("Unknown block codec: " + id);
+        }
+    }
+}
+
+class StoredBlockCodec implements BlockCodec {
+    static final int ID = 0;
+
+    public int id() {
+        return ID;
+    }
+
+    public byte[] compress(byte[] raw, int length) {
+        return Arrays.copyOf(raw, length);
+    }
+
+    public void decompress(byte[] compressed, byte[] raw) {
+        System.arraycopy(compressed, 0, raw, 0, raw.length);
+    }
+}
+
+class DeflateBlockCodec implements BlockCodec {
+    static final int ID = 1;
+    private final int level;
+
+    public DeflateBlockCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateBlockCodec(int level) {
+        this.level = level;
+    }
+
+    public int id() {
+        return ID;
+    }
+
+    public byte[] compress(byte[] raw, int length) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public void decompress(byte[] compressed, byte[] raw) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, raw.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != raw.length) throw new IOException("Corrupt block");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
+
+// Appendable record file written by the background flusher: header (magic, version), then one
+// frame per entry: int length, int CRC32, JournalRecordCodec bytes. A torn last frame is ignored.
+class JournalRecordStream {
+    static final int MAGIC = 0x4A525354;
+    static final int VERSION = 1;
+
+    public static boolean isRecordStream(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Opens the file for appending, writing the header if it is new or empty.
+    public static DataOutputStream openForAppend(String filename) throws IOException {
+        File file = new File(filename);
+        if (file.length() > 0 && !isRecordStream(filename)) {
+            throw new IOException("Not a journal record file: " + filename);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+        if (file.length() == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        return out;
+    }
+
+    public static void write(DataOutputStream out, JournalEntry entry) throws IOException {
+        byte[] record = JournalRecordCodec.encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    public static List<JournalEntry> read(String filename) throws IOException {
+        List<JournalEntry> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a journal record file: " + filename);
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] record;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0) break;
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) break;
+                result.add(JournalRecordCodec.decode(ByteBuffer.wrap(record)));
+            }
+        }
+        return result;
+    }
+}
+
+// Block-compressed export format. Entries are encoded with JournalRecordCodec, packed into blocks
+// of about BLOCK_SIZE bytes and compressed one block at a time:
+// [header: magic, version, codec, reserved] [block]... [index: per block offset, compressed
+// length, raw length, first entry] [footer: index offset, block count, entry count, magic]
+class BlockJournalWriter implements Closeable {
+    static final int MAGIC = 0x4A52424B;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 20;
+    static final int FOOTER_SIZE = 20;
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final FileChannel ch;
+    private final BlockCodec codec;
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private final DataOutputStream indexOut = new DataOutputStream(index);
+    private long pos = HEADER_SIZE;
+    private int blocks;
+    private int count;
+    private int blockFirst;
+
+    public BlockJournalWriter(String filename, BlockCodec codec) throws IOException {
+        this.codec = codec;
+        this.ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(codec.id()).putInt(0).flip();
+        writeFully(header);
+    }
+
+    public void add(JournalEntry entry) throws IOException {
+        byte[] record = JournalRecordCodec.encode(entry);
+        blockOut.writeInt(record.length);
+        blockOut.write(record);
+        count++;
+        if (block.size() >= BLOCK_SIZE) flushBlock();
+    }
+
+    private void flushBlock() throws IOException {
+        if (block.size() == 0) return;
+        byte[] compressed = codec.compress(block.toByteArray(), block.size());
+        indexOut.writeLong(pos);
+        indexOut.writeInt(compressed.length);
+        indexOut.writeInt(block.size());
+        indexOut.writeInt(blockFirst);
+        writeFully(ByteBuffer.wrap(compressed));
+        pos += compressed.length;
+        blocks++;
+        blockFirst = count;
+        block.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            writeFully(ByteBuffer.wrap(index.toByteArray()));
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(pos).putInt(blocks).putInt(count).putInt(MAGIC).flip();
+            writeFully(footer);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+}
+
+// Random access to a block-compressed export. Only the index is read up front; get(n)
+// decompresses the single block holding entry n and keeps the last block decoded.
+class BlockJournalReader implements Closeable {
+    private final FileChannel ch;
+    private final BlockCodec codec;
+    private final long[] blockOffsets;
+    private final int[] compressedLengths;
+    private final int[] rawLengths;
+    private final int[] firstEntries;
+    private final int count;
+    private int cachedBlock = -1;
+    private ByteBuffer cachedRaw;
+    private int[] cachedOffsets;
+
+    private BlockJournalReader(FileChannel ch) throws IOException {
+        this.ch = ch;
+        long size = ch.size();
+        if (size < BlockJournalWriter.HEADER_SIZE + BlockJournalWriter.FOOTER_SIZE) {
+            throw new IOException("Not a block journal file");
+        }
+        ByteBuffer header = read(0, BlockJournalWriter.HEADER_SIZE);
+        ByteBuffer footer = read(size - BlockJournalWriter.FOOTER_SIZE, BlockJournalWriter.FOOTER_SIZE);
+        if (header.getInt() != BlockJournalWriter.MAGIC || header.getInt() != BlockJournalWriter.VERSION
+                || footer.getInt(16) != BlockJournalWriter.MAGIC) {
+            throw new IOException("Not a block journal file");
+        }
+        this.codec = BlockCodec.forId(header.getInt());
+        long indexOffset = footer.getLong();
+        int blocks = footer.getInt();
+        this.count = footer.getInt();
+        ByteBuffer index = read(indexOffset, blocks * BlockJournalWriter.INDEX_ENTRY_SIZE);
+        blockOffsets = new long[blocks];
+        compressedLengths = new int[blocks];
+        rawLengths = new int[blocks];
+        firstEntries = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            blockOffsets[b] = index.getLong();
+            compressedLengths[b] = index.getInt();
+            rawLengths[b] = index.getInt();
+            firstEntries[b] = index.getInt();
+        }
+    }
+
+    public static BlockJournalReader open(String filename) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            return new BlockJournalReader(ch);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public static boolean isBlockFile(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == BlockJournalWriter.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int blockCount() {
+        return blockOffsets.length;
+    }
+
+    public synchronized JournalEntry get(int n) throws IOException {
+        if (n < 0 || n >= count) throw new IndexOutOfBoundsException("Index: " + n);
+        int b = blockOf(n);
+        if (b != cachedBlock) {
+            cachedRaw = decompressBlock(b);
+            cachedOffsets = recordOffsets(cachedRaw, entriesIn(b));
+            cachedBlock = b;
+        }
+        ByteBuffer record = cachedRaw.duplicate();
+        int offset = cachedOffsets[n - firstEntries[b]];
+        record.limit(offset + 4 + record.getInt(offset)).position(offset + 4);
+        return JournalRecordCodec.decode(record.slice());
+    }
+
+    // Decodes every entry of one block; uses positional reads, so blocks can be read concurrently.
+    public List<JournalEntry> readBlock(int b) throws IOException {
+        ByteBuffer raw = decompressBlock(b);
+        int n = entriesIn(b);
+        List<JournalEntry> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int length = raw.getInt();
+            ByteBuffer record = raw.slice();
+            record.limit(length);
+            result.add(JournalRecordCodec.decode(record));
+            raw.position(raw.position() + length);
+        }
+        return result;
+    }
+
+    // Decodes all blocks in parallel; each block fills its own slice of the result, which keeps
+    // the original entry order without a merge step.
+    public List<JournalEntry> readAll() throws IOException {
+        JournalEntry[] result = new JournalEntry[count];
+        if (blockOffsets.length == 0) return Arrays.asList(result);
+        try {
+            ForkJoinPool.commonPool().invoke(new BlockTask(result, 0, blockOffsets.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return Arrays.asList(result);
+    }
+
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final JournalEntry[] result;
+        private final int from;
+        private final int to;
+
+        BlockTask(JournalEntry[] result, int from, int to) {
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockTask(result, from, mid), new BlockTask(result, mid, to));
+                return;
+            }
+            try {
+                List<JournalEntry> block = readBlock(from);
+                for (int i = 0; i < block.size(); i++) {
+                    result[firstEntries[from] + i] = block.get(i);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private int blockOf(int n) {
+        int lo = 0, hi = firstEntries.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstEntries[mid] <= n) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private int entriesIn(int b) {
+        return (b + 1 < firstEntries.length ? firstEntries[b + 1] : count) - firstEntries[b];
+    }
+
+    private ByteBuffer decompressBlock(int b) throws IOException {
+        byte[] raw = new byte[rawLengths[b]];
+        codec.decompress(read(blockOffsets[b], compressedLengths[b]).array(), raw);
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static int[] recordOffsets(ByteBuffer raw, int n) {
+        int[] offsets = new int[n];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = pos;
+            pos += 4 + raw.getInt(pos);
+        }
+        return offsets;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new EOFException("Truncated block journal");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
+
+// Appends new entries to a text file (and optionally a binary record file) on a background thread.
+// Entries wait in a bounded queue; the writer drains whatever is queued and writes it as one batch.
+class AsyncJournalFlusher implements Closeable {
+    enum BackpressurePolicy { BLOCK, FAIL, CALLER_RUNS }
+
+    private static final int MAX_BATCH = 4096;
+    private final ArrayBlockingQueue<JournalEntry> queue;
+    private final BackpressurePolicy policy;
+    private final BufferedWriter text;
+    private final DataOutputStream binary;
+    private final Thread writer;
+    private final Object submitLock = new Object();
+    private final Object writeLock = new Object();
+    private final List<JournalEntry> batch = new ArrayList<>();
+    private final TreeMap<Long, List<CompletableFuture<Void>>> waiters = new TreeMap<>();
+    private volatile boolean closed;
+    private volatile boolean idle;
+    private long submitted;
+    private long written;
+    private long batches;
+    private long totalFlushNanos;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long dropped;
+    private IOException unreportedFailure;
+
+    public AsyncJournalFlusher(String textFile, String binaryFile, int capacity, BackpressurePolicy policy)
+            throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.binary = binaryFile == null ? null : JournalRecordStream.openForAppend(binaryFile);
+        this.text = new BufferedWriter(new FileWriter(textFile, true), 64 * 1024);
+        this.writer = new Thread(this::run, "journal-flusher");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Returns false only under the FAIL policy when the queue is full.
+    public boolean submit(JournalEntry entry) throws IOException {
+        synchronized (submitLock) {
+            if (closed) throw new IllegalStateException("Flusher is closed");
+            if (!queue.offer(entry)) {
+                switch (policy) {
+                    case FAIL:
+                        return false;
+                    case CALLER_RUNS:
+                        // Drain under the write lock so the caller's entry still lands after the queued ones.
+                        synchronized (writeLock) {
+                            queue.drainTo(batch);
+                            batch.add(entry);
+                            writeBatch();
+                        }
+                        submitted++;
+                        return true;
+                    default:
+                        try {
+                            queue.put(entry);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while queueing entry");
+                        }
+                }
+            }
+            submitted++;
+        }
+        if (idle) LockSupport.unpark(writer);
+        return true;
+    }
+
+    // Completes once every entry submitted before this call has been written and flushed.
+    public CompletableFuture<Void> flush() {
+        long target;
+        synchronized (submitLock) {
+            target = submitted;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (writeLock) {
+            if (written >= target) {
+                // A batch that failed while nobody was waiting is reported to the next flush.
+                if (unreportedFailure != null) {
+                    future.completeExceptionally(unreportedFailure);
+                    unreportedFailure = null;
+                } else {
+                    future.complete(null);
+                }
+                return future;
+            }
+            waiters.computeIfAbsent(target, k -> new ArrayList<>()).add(future);
+        }
+        LockSupport.unpark(writer);
+        return future;
+    }
+
+    private void run() {
+        while (true) {
+            boolean wrote;
+            synchronized (writeLock) {
+                queue.drainTo(batch, MAX_BATCH);
+                wrote = !batch.isEmpty();
+                if (wrote) {
+                    try {
+                        writeBatch();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            if (wrote) continue;
+            if (closed) return;
+            idle = true;
+            if (queue.isEmpty() && !closed) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            idle = false;
+        }
+    }
+
+    // Called with writeLock held.
+    private void writeBatch() throws IOException {
+        long start = System.nanoTime();
+        int n = batch.size();
+        try {
+            for (JournalEntry entry : batch) {
+                text.write("Title: " + entry.getTitle());
+                text.newLine();
+                text.write("Timestamp: " + entry.getTimestamp());
+                text.newLine();
+                text.write("Content: " + entry.getContent());
+                text.newLine();
+                text.write("---");
+                text.newLine();
+                if (binary != null) JournalRecordStream.write(binary, entry);
+            }
+            text.flush();
+            if (binary != null) binary.flush();
+        } catch (IOException e) {
+            // The batch is lost; count it as done so later flushes do not wait for it forever.
+            written += n;
+            dropped += n;
+            if (waiters.isEmpty()) unreportedFailure = e;
+            failWaiters(e);
+            throw e;
+        } finally {
+            batch.clear();
+        }
+        long elapsed = System.nanoTime() - start;
+        written += n;
+        batches++;
+        totalFlushNanos += elapsed;
+        lastFlushNanos = elapsed;
+        maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        Map<Long, List<CompletableFuture<Void>>> done = waiters.headMap(written, true);
+        for (List<CompletableFuture<Void>> futures : done.values()) {
+            for (CompletableFuture<Void> f : futures) f.complete(null);
+        }
+        done.clear();
+    }
+
+    private void failWaiters(IOException e) {
+        for (List<CompletableFuture<Void>> futures : waiters.values()) {
+            for (CompletableFuture<Void> f : futures) f.completeExceptionally(e);
+        }
+        waiters.clear();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        synchronized (writeLock) {
+            return written;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (writeLock) {
+            return dropped;
+        }
+    }
+
+    public long getBatchCount() {
+        synchronized (writeLock) {
+            return batches;
+        }
+    }
+
+    public double getLastFlushMillis() {
+        synchronized (writeLock) {
+            return lastFlushNanos / 1e6;
+        }
+    }
+
+    public double getMaxFlushMillis() {
+        synchronized (writeLock) {
+            return maxFlushNanos / 1e6;
+        }
+    }
+
+    public double getAverageFlushMillis() {
+        synchronized (writeLock) {
+            return batches == 0 ? 0 : totalFlushNanos / 1e6 / batches;
+        }
+    }
+
+    // Writes everything still queued before closing the files.
+    @Override
+    public void close() throws IOException {
+        synchronized (submitLock) {
+            closed = true;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            text.close();
+            if (binary != null) binary.close();
+        }
+    }
+}
+
+// Entry numbers keyed by timestamp (epoch millis, UTC). Entries without a timestamp are skipped.
+class JournalTimeIndex {
+    private final TreeMap<Long, List<Integer>> byTime = new TreeMap<>();
+    private int size;
+
+    public void add(int doc, JournalEntry entry) {
+        long millis = JournalRecordCodec.toMillis(entry.getTimestamp());
+        if (millis != JournalRecordCodec.NO_TIMESTAMP) {
+            byTime.computeIfAbsent(millis, k -> new ArrayList<>(1)).add(doc);
+        }
+        size = doc + 1;
+    }
+
+    // Number of entries covered so far, including those without a timestamp.
+    public int size() {
+        return size;
+    }
+
+    // Entries with from <= timestamp < to, in time order.
+    public List<Integer> between(LocalDateTime from, LocalDateTime to) {
+        List<Integer> result = new ArrayList<>();
+        long lo = JournalRecordCodec.toMillis(from);
+        long hi = JournalRecordCodec.toMillis(to);
+        if (lo >= hi) return result;
+        for (List<Integer> docs : byTime.subMap(lo, true, hi, false).values()) {
+            result.addAll(docs);
+        }
+        return result;
+    }
+}
+
+// Positional inverted index over entry titles and contents. Entry ids are list positions and only
+// ever grow, so each posting list is an append-only byte array of varints:
+// (doc id delta, term frequency, position deltas...). Queries: space-separated terms are ANDed,
+// OR separates alternatives, and "quoted words" must appear as a phrase.
+class JournalIndex {
+    private static final int MAGIC = 0x4A494459;
+
+    private static final class Postings {
+        byte[] data = new byte[16];
+        int length;
+        int lastDoc = -1;
+        int docCount;
+
+        void add(int doc, List<Integer> positions) {
+            writeVarint(doc - lastDoc);
+            writeVarint(positions.size());
+            int prev = 0;
+            for (int p : positions) {
+                writeVarint(p - prev);
+                prev = p;
+            }
+            lastDoc = doc;
+            docCount++;
+        }
+
+        Map<Integer, int[]> decode() {
+            Map<Integer, int[]> result = new LinkedHashMap<>();
+            int[] cursor = { 0 };
+            int doc = -1;
+            while (cursor[0] < length) {
+                doc += readVarint(cursor);
+                int[] positions = new int[readVarint(cursor)];
+                int p = 0;
+                for (int i = 0; i < positions.length; i++) {
+                    p += readVarint(cursor);
+                    positions[i] = p;
+                }
+                result.put(doc, positions);
+            }
+            return result;
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private int readVarint(int[] cursor) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[cursor[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private int documents;
+
+    public synchronized int size() {
+        return documents;
+    }
+
+    public synchronized void add(int doc, JournalEntry entry) {
+        Map<String, List<Integer>> occurrences = new HashMap<>();
+        // Content starts one position past the title, so positions stay ascending and no phrase
+        // spans the two.
+        int titleWords = collect(entry.getTitle(), 0, occurrences);
+        collect(entry.getContent(), titleWords + 1, occurrences);
+        for (Map.Entry<String, List<Integer>> e : occurrences.entrySet()) {
+            terms.computeIfAbsent(e.getKey(), k -> new Postings()).add(doc, e.getValue());
+        }
+        documents = Math.max(documents, doc + 1);
+    }
+
+    private static int collect(String text, int base, Map<String, List<Integer>> occurrences) {
+        List<String> words = tokenize(text);
+        for (int i = 0; i < words.size(); i++) {
+            occurrences.computeIfAbsent(words.get(i), k -> new ArrayList<>()).add(base + i);
+        }
+        return words.size();
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) return words;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    public synchronized List<Integer> search(String query) {
+        Set<Integer> result = new TreeSet<>();
+        for (List<List<String>> group : parse(query)) {
+            Set<Integer> matches = null;
+            for (List<String> clause : group) {
+                Set<Integer> docs = clause.size() == 1 ? docs(clause.get(0)) : phrase(clause);
+                if (matches == null) {
+                    matches = docs;
+                } else {
+                    matches.retainAll(docs);
+                }
+                if (matches.isEmpty()) break;
+            }
+            if (matches != null) result.addAll(matches);
+        }
+        return new ArrayList<>(result);
+    }
+
+    // Returns OR-groups of AND-clauses; each clause is a single term or a phrase.
+    private static List<List<List<String>>> parse(String query) {
+        List<List<List<String>>> groups = new ArrayList<>();
+        List<List<String>> group = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 1) {
+                List<String> phrase = tokenize(parts[i]);
+                if (!phrase.isEmpty()) group.add(phrase);
+                continue;
+            }
+            for (String raw : parts[i].trim().split("\\s+")) {
+                if (raw.equals("OR")) {
+                    if (!group.isEmpty()) groups.add(group);
+                    group = new ArrayList<>();
+                    continue;
+                }
+                for (String term : tokenize(raw)) {
+                    group.add(Collections.singletonList(term));
+                }
+            }
+        }
+        if (!group.isEmpty()) groups.add(group);
+        return groups;
+    }
+
+    private Set<Integer> docs(String term) {
+        Postings postings = terms.get(term);
+        return postings == null ? new HashSet<>() : new HashSet<>(postings.decode().keySet());
+    }
+
+    private Set<Integer> phrase(List<String> words) {
+        List<Map<Integer, int[]>> lists = new ArrayList<>();
+        for (String w : words) {
+            Postings postings = terms.get(w);
+            if (postings == null) return new HashSet<>();
+            lists.add(postings.decode());
+        }
+        Set<Integer> result = new HashSet<>();
+        for (Map.Entry<Integer, int[]> first : lists.get(0).entrySet()) {
+            int doc = first.getKey();
+            for (int start : first.getValue()) {
+                boolean match = true;
+                for (int k = 1; k < lists.size() && match; k++) {
+                    int[] positions = lists.get(k).get(doc);
+                    match = positions != null && Arrays.binarySearch(positions, start + k) >= 0;
+                }
+                if (match) {
+                    result.add(doc);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Terms are stored as int-length UTF-8, so tokens of any length fit.
+    public synchronized void save(String filename) throws IOException {
+        String tmp = filename + ".tmp";
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(documents);
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> e : terms.entrySet()) {
+                Postings p = e.getValue();
+                byte[] term = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(term.length);
+                out.write(term);
+                out.writeInt(p.lastDoc);
+                out.writeInt(p.docCount);
+                out.writeInt(p.length);
+                out.write(p.data, 0, p.length);
+            }
+        }
+        Files.move(Paths.get(tmp), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static JournalIndex load(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a journal index file");
+            JournalIndex index = new JournalIndex();
+            index.documents = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] term = new byte[in.readInt()];
+                in.readFully(term);
+                Postings p = new Postings();
+                p.lastDoc = in.readInt();
+                p.docCount = in.readInt();
+                p.length = in.readInt();
+                p.data = new byte[Math.max(16, p.length)];
+                in.readFully(p.data, 0, p.length);
+                index.terms.put(new String(term, StandardCharsets.UTF_8), p);
+            }
+            return index;
+        }
+    }
+}
+
 class JournalManager {
     private List<JournalEntry> entries;
+    private JournalWal wal;
+    private String walFilename;
+    private JournalIndex index = new JournalIndex();
+    private final JournalTimeIndex timeIndex = new JournalTimeIndex();
+    private AsyncJournalFlusher flusher;
 
     public JournalManager() {
         entries = new ArrayList<>();
     }
 
+    // Recovers the entries already in the log, then makes every addEntry durable before it returns.
+    public void openWriteAheadLog(String filename, long maxDelayMillis) {
+        try {
+            JournalWal log = new JournalWal(filename, maxDelayMillis);
+            synchronized (this) {
+                entries.addAll(log.recoveredEntries());
+                indexNewEntries();
+                wal = log;
+                walFilename = filename;
+            }
+            System.out.println("Recovered " + log.recoveredEntries().size() + " entries from " + filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void addEntry(JournalEntry entry) {
-        entries.add(entry);
+        JournalWal log;
+        AsyncJournalFlusher background;
+        long position = 0;
+        synchronized (this) {
+            entries.add(entry);
+            index.add(entries.size() - 1, entry);
+            background = flusher;
+            log = wal;
+            if (log != null) {
+                try {
+                    position = log.write(entry);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }
+        // Queued outside the manager lock, so a full queue only holds up this caller. Under
+        // CALLER_RUNS this caller also does the disk write itself.
+        if (background != null) {
+            try {
+                if (!background.submit(entry)) System.out.println("Flush queue full; entry not queued for flush");
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (IllegalStateException e) {
+                System.out.println("Background flush stopped; entry not queued for flush");
+            }
+        }
+        if (log != null) {
+            try {
+                log.sync(position);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void closeWriteAheadLog() {
+        if (wal == null) return;
+        try {
+            wal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        wal = null;
+    }
+
+    // From now on new entries are appended to the given files by a background writer.
+    public void startBackgroundFlush(String textFile, String binaryFile, int capacity,
+                                     AsyncJournalFlusher.BackpressurePolicy policy) {
+        try {
+            AsyncJournalFlusher started = new AsyncJournalFlusher(textFile, binaryFile, capacity, policy);
+            synchronized (this) {
+                if (flusher != null) flusher.close();
+                flusher = started;
+            }
+            System.out.println("Background flush started: " + textFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public CompletableFuture<Void> flushInBackground() {
+        AsyncJournalFlusher f = flusher;
+        return f == null ? CompletableFuture.completedFuture(null) : f.flush();
+    }
+
+    public AsyncJournalFlusher getFlusher() {
+        return flusher;
+    }
+
+    public void stopBackgroundFlush() {
+        AsyncJournalFlusher f;
+        synchronized (this) {
+            f = flusher;
+            flusher = null;
+        }
+        if (f == null) return;
+        try {
+            f.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Everything in the log is now in the saved journal, so recovery must not replay it again.
+    private void checkpointWriteAheadLog() throws IOException {
+        if (wal != null) {
+            wal.checkpoint();
+        } else if (walFilename != null) {
+            try (FileChannel ch = FileChannel.open(Paths.get(walFilename), StandardOpenOption.WRITE)) {
+                ch.truncate(0);
+                ch.force(true);
+            } catch (NoSuchFileException e) {
+                walFilename = null;
+            }
+        }
+    }
+
+    private void indexNewEntries() {
+        for (int i = index.size(); i < entries.size(); i++) {
+            index.add(i, entries.get(i));
+        }
+    }
+
+    public List<JournalEntry> search(String query) {
+        List<JournalEntry> result = new ArrayList<>();
+        for (int id : index.search(query)) {
+            result.add(entries.get(id));
+        }
+        return result;
+    }
+
+    // Entries with from <= timestamp < to. The time index is brought up to date on demand, so
+    // loading a mapped journal does not decode every entry up front.
+    public synchronized List<JournalEntry> entriesBetween(LocalDateTime from, LocalDateTime to) {
+        for (int i = timeIndex.size(); i < entries.size(); i++) {
+            timeIndex.add(i, entries.get(i));
+        }
+        List<JournalEntry> result = new ArrayList<>();
+        for (int id : timeIndex.between(from, to)) {
+            result.add(entries.get(id));
+        }
+        return result;
+    }
+
+    // Moves entry bodies off the heap; backingFile may be null for direct memory.
+    public void useOffHeapStorage(String backingFile) {
+        try {
+            OffHeapEntryList store = backingFile == null ? new OffHeapEntryList() : new OffHeapEntryList(backingFile);
+            synchronized (this) {
+                store.addAll(entries);
+                entries = store;
+            }
+            System.out.println("Entries moved to off-heap storage");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void viewEntries() {
@@ -59,9 +1552,26 @@ class JournalManager {
         }
     }
 
+    // Decodes only the entries in the requested page.
+    public Iterator<JournalEntry> viewEntries(int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, entries.size()));
+        int to = (int) Math.min((long) from + Math.max(0, limit), entries.size());
+        return entries.subList(from, to).iterator();
+    }
+
     public void saveEntries(String filename) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(entries);
+        try {
+            synchronized (this) {
+                JournalFile.write(entries, filename);
+                // The index can be rebuilt from the journal, so failing to save it must not skip the checkpoint.
+                try {
+                    index.save(filename + ".idx");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    Files.deleteIfExists(Paths.get(filename + ".idx"));
+                }
+                checkpointWriteAheadLog();
+            }
             System.out.println("Entries saved to " + filename);
         } catch (IOException e) {
             e.printStackTrace();
@@ -69,20 +1579,54 @@ class JournalManager {
     }
 
     public void loadEntries(String filename) {
+        if (JournalFile.isJournalFile(filename)) {
+            try {
+                MappedJournal journal = MappedJournal.open(filename);
+                if (entries.isEmpty() && !(entries instanceof OffHeapEntryList)) {
+                    entries = journal;
+                    index = loadIndex(filename + ".idx", journal.size());
+                } else {
+                    entries.addAll(journal);
+                }
+                indexNewEntries();
+                System.out.println("Entries loaded from " + filename);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // Files written before the binary journal format are Java-serialized lists.
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
             List<JournalEntry> loaded = (List<JournalEntry>) ois.readObject();
             entries.addAll(loaded);
+            indexNewEntries();
             System.out.println("Entries loaded from " + filename);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
 
+    // Reuses the index saved next to the journal when it covers exactly that file's entries.
+    private JournalIndex loadIndex(String filename, int expectedEntries) {
+        if (new File(filename).exists()) {
+            try {
+                JournalIndex loaded = JournalIndex.load(filename);
+                if (loaded.size() == expectedEntries) return loaded;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new JournalIndex();
+    }
+
     public void exportToBinary(String filename) {
-        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(filename))) {
+        exportToBinary(filename, new DeflateBlockCodec());
+    }
+
+    public void exportToBinary(String filename, BlockCodec codec) {
+        try (BlockJournalWriter writer = new BlockJournalWriter(filename, codec)) {
             for (JournalEntry entry : entries) {
-                dos.writeUTF(entry.getTitle());
-                dos.writeUTF(entry.getContent());
+                writer.add(entry);
             }
             System.out.println("Entries exported to binary file: " + filename);
         } catch (IOException e) {
@@ -90,13 +1634,50 @@ class JournalManager {
         }
     }
 
+    // Reads one entry from an exported file, decompressing only the block that holds it.
+    public JournalEntry readExportedEntry(String filename, int n) {
+        try (BlockJournalReader reader = BlockJournalReader.open(filename)) {
+            return reader.get(n);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public void importFromBinary(String filename) {
-        try (DataInputStream dis = new DataInputStream(new FileInputStream(filename))) {
-            while (dis.available() > 0) {
-                String title = dis.readUTF();
+        if (BlockJournalReader.isBlockFile(filename)) {
+            try (BlockJournalReader reader = BlockJournalReader.open(filename)) {
+                entries.addAll(reader.readAll());
+                indexNewEntries();
+                System.out.println("Entries imported from binary file: " + filename);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (JournalRecordStream.isRecordStream(filename)) {
+            try {
+                entries.addAll(JournalRecordStream.read(filename));
+                indexNewEntries();
+                System.out.println("Entries imported from binary file: " + filename);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 64 * 1024))) {
+            while (true) {
+                String title;
+                try {
+                    title = dis.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
                 String content = dis.readUTF();
-                entries.add(new JournalEntry(title, content));
+                // The old format has no timestamp; leave it unset rather than stamping the import time.
+                entries.add(new JournalEntry(title, content, null));
             }
+            indexNewEntries();
             System.out.println("Entries imported from binary file: " + filename);
         } catch (IOException e) {
             e.printStackTrace();
@@ -108,6 +1689,8 @@ class JournalManager {
             for (JournalEntry entry : entries) {
                 writer.write("Title: " + entry.getTitle());
                 writer.newLine();
+                writer.write("Timestamp: " + entry.getTimestamp());
+                writer.newLine();
                 writer.write("Content: " + entry.getContent());
                 writer.newLine();
                 writer.write("---");
@@ -134,6 +1717,14 @@ class Main {
             System.out.println("5. Export to Binary");
             System.out.println("6. Import from Binary");
             System.out.println("7. Flush to Disk with Buffer");
+            System.out.println("8. Open Write-Ahead Log");
+            System.out.println("9. Search Entries");
+            System.out.println("10. View Entries Page");
+            System.out.println("11. Use Off-Heap Storage");
+            System.out.println("12. Read Exported Entry");
+            System.out.println("13. Start Background Flush");
+            System.out.println("14. Background Flush Status");
+            System.out.println("15. Entries Between Dates");
             System.out.println("0. Exit");
             System.out.print("Enter your choice: ");
             choice = scanner.nextInt();
@@ -175,7 +1766,83 @@ class Main {
                     String bufferFile = scanner.nextLine();
                     manager.flushToDiskUsingBuffer(bufferFile);
                     break;
+                case 8:
+                    System.out.print("Enter log filename: ");
+                    String walFile = scanner.nextLine();
+                    manager.openWriteAheadLog(walFile, 2);
+                    break;
+                case 9:
+                    System.out.print("Enter query (terms, OR, \"phrase\"): ");
+                    String query = scanner.nextLine();
+                    for (JournalEntry entry : manager.search(query)) {
+                        System.out.println(entry);
+                    }
+                    break;
+                case 10:
+                    System.out.print("Enter offset: ");
+                    int offset = scanner.nextInt();
+                    System.out.print("Enter page size: ");
+                    int limit = scanner.nextInt();
+                    scanner.nextLine();
+                    Iterator<JournalEntry> page = manager.viewEntries(offset, limit);
+                    while (page.hasNext()) {
+                        System.out.println(page.next());
+                    }
+                    break;
+                case 11:
+                    System.out.print("Enter backing filename (blank for direct memory): ");
+                    String backing = scanner.nextLine().trim();
+                    manager.useOffHeapStorage(backing.isEmpty() ? null : backing);
+                    break;
+                case 12:
+                    System.out.print("Enter binary filename: ");
+                    String archive = scanner.nextLine();
+                    System.out.print("Enter entry number: ");
+                    int n = scanner.nextInt();
+                    scanner.nextLine();
+                    JournalEntry archived = manager.readExportedEntry(archive, n);
+                    if (archived != null) System.out.println(archived);
+                    break;
+                case 13:
+                    System.out.print("Enter text filename: ");
+                    String flushText = scanner.nextLine();
+                    System.out.print("Enter binary filename (blank for none): ");
+                    String flushBin = scanner.nextLine().trim();
+                    manager.startBackgroundFlush(flushText, flushBin.isEmpty() ? null : flushBin, 1024,
+                            AsyncJournalFlusher.BackpressurePolicy.BLOCK);
+                    break;
+                case 14:
+                    AsyncJournalFlusher flusher = manager.getFlusher();
+                    if (flusher == null) {
+                        System.out.println("Background flush is not running");
+                        break;
+                    }
+                    try {
+                        manager.flushInBackground().join();
+                    } catch (CompletionException e) {
+                        System.out.println("Background flush failed: " + e.getCause());
+                    }
+                    System.out.println("Queue depth: " + flusher.getQueueDepth() + ", written: " + flusher.getWrittenCount()
+                            + ", dropped: " + flusher.getDroppedCount() + ", batches: " + flusher.getBatchCount());
+                    System.out.printf("Flush latency ms - last: %.3f, avg: %.3f, max: %.3f%n",
+                            flusher.getLastFlushMillis(), flusher.getAverageFlushMillis(), flusher.getMaxFlushMillis());
+                    break;
+                case 15:
+                    try {
+                        System.out.print("From (yyyy-MM-ddTHH:mm): ");
+                        LocalDateTime from = LocalDateTime.parse(scanner.nextLine().trim());
+                        System.out.print("To (yyyy-MM-ddTHH:mm): ");
+                        LocalDateTime to = LocalDateTime.parse(scanner.nextLine().trim());
+                        for (JournalEntry entry : manager.entriesBetween(from, to)) {
+                            System.out.println(entry);
+                        }
+                    } catch (DateTimeParseException e) {
+                        System.out.println("Invalid date: " + e.getParsedString());
+                    }
+                    break;
                 case 0:
+                    manager.stopBackgroundFlush();
+                    manager.closeWriteAheadLog();
                     System.out.println("Exiting... Goodbye!");
                     break;
                 default:
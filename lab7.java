@@ -1,21 +1,1033 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntBiFunction;
+
+// Splits text into maximal runs of word characters ([A-Za-z0-9_], as regex \\w) and non-word characters.
+// Tokens are reported as spans over the input, so no String is created unless the caller asks for one.
+class TextTokenizer {
+    public enum Kind { WORD, SEPARATOR }
+
+    private CharSequence text;
+    private int pos;
+    private int end;
+    private int start;
+    private Kind kind;
+
+    public TextTokenizer reset(CharSequence text) {
+        return reset(text, 0, text.length());
+    }
+
+    public TextTokenizer reset(CharSequence text, int from, int to) {
+        this.text = text;
+        this.pos = from;
+        this.end = to;
+        this.start = from;
+        this.kind = null;
+        return this;
+    }
+
+    public boolean next() {
+        if (pos >= end) return false;
+        start = pos;
+        boolean word = isWordChar(text.charAt(pos));
+        do {
+            pos++;
+        } while (pos < end && isWordChar(text.charAt(pos)) == word);
+        kind = word ? Kind.WORD : Kind.SEPARATOR;
+        return true;
+    }
+
+    public Kind kind() { return kind; }
+    public boolean isWord() { return kind == Kind.WORD; }
+    public int start() { return start; }
+    public int end() { return pos; }
+    public int length() { return pos - start; }
+
+    public String token() {
+        return text.subSequence(start, pos).toString();
+    }
+
+    public static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
+
+// Receives token spans. The span is only valid for the duration of the call.
+interface TokenSink {
+    void token(CharSequence text, int start, int end, boolean word) throws IOException;
+
+    default void finish() throws IOException {
+    }
+}
+
+abstract class TokenStage implements TokenSink {
+    protected TokenSink next;
+
+    public void connect(TokenSink next) {
+        this.next = next;
+        reset();
+    }
+
+    protected void reset() {
+    }
+
+    @Override
+    public void finish() throws IOException {
+        next.finish();
+    }
+}
+
+class WriterSink implements TokenSink {
+    private final Writer out;
+    private char[] scratch = new char[256];
+
+    public WriterSink(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void token(CharSequence text, int start, int end, boolean word) throws IOException {
+        if (text instanceof String) {
+            out.write((String) text, start, end - start);
+            return;
+        }
+        int len = end - start;
+        if (scratch.length < len) scratch = new char[Math.max(len, scratch.length * 2)];
+        if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(start, end, scratch, 0);
+        } else {
+            for (int i = 0; i < len; i++) scratch[i] = text.charAt(start + i);
+        }
+        out.write(scratch, 0, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+}
+
+class EditDistance {
+    private final boolean transpositions;
+    private final ThreadLocal<int[][]> rows = ThreadLocal.withInitial(() -> new int[3][32]);
+
+    public EditDistance(boolean transpositions) {
+        this.transpositions = transpositions;
+    }
+
+    public boolean allowsTranspositions() {
+        return transpositions;
+    }
+
+    // Returns the edit distance between a and b, or max + 1 as soon as it is known to exceed max.
+    public int distance(CharSequence a, CharSequence b, int max) {
+        int n = a.length();
+        int m = b.length();
+        max = Math.min(max, Math.max(n, m));
+        if (Math.abs(n - m) > max) return max + 1;
+        if (n == 0 || m == 0) return Math.max(n, m);
+        int over = max + 1;
+
+        int[][] buf = rows.get();
+        if (buf[0].length < m + 2) {
+            int size = Math.max(m + 2, buf[0].length * 2);
+            buf = new int[][] { new int[size], new int[size], new int[size] };
+            rows.set(buf);
+        }
+        int[] prev2 = buf[0];
+        int[] prev = buf[1];
+        int[] cur = buf[2];
+        for (int j = 0; j <= m; j++) prev[j] = j;
+        if (m < prev.length - 1) prev[m + 1] = over;
+
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - max);
+            int to = Math.min(m, i + max);
+            cur[0] = i;
+            if (from > 1) cur[from - 1] = over;
+            int rowMin = from == 1 ? i : over;
+            char ca = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                char cb = b.charAt(j - 1);
+                int cost = ca == cb ? 0 : 1;
+                int v = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (transpositions && i > 1 && j > 1
+                        && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                    v = Math.min(v, prev2[j - 2] + 1);
+                }
+                cur[j] = v;
+                if (v < rowMin) rowMin = v;
+            }
+            if (to < m) cur[to + 1] = over;
+            if (rowMin > max) return over;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m] > max ? over : prev[m];
+    }
+}
+
+interface SuggestionIndex {
+    void add(String word);
+    void remove(String word);
+    List<String> search(String query, int maxDistance);
+}
+
+class BKTreeIndex implements SuggestionIndex {
+    private static class Node {
+        final String word;
+        boolean deleted;
+        Map<Integer, Node> children;
+
+        Node(String word) {
+            this.word = word;
+        }
+    }
+
+    private final ToIntBiFunction<String, String> metric;
+    private Node root;
+    private int live;
+    private int deleted;
+
+    public BKTreeIndex(ToIntBiFunction<String, String> metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public void add(String word) {
+        if (root == null) {
+            root = new Node(word);
+            live++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = metric.applyAsInt(word, node.word);
+            if (d == 0) {
+                if (node.deleted) {
+                    node.deleted = false;
+                    deleted--;
+                    live++;
+                }
+                return;
+            }
+            if (node.children == null) node.children = new HashMap<>();
+            Node child = node.children.get(d);
+            if (child == null) {
+                node.children.put(d, new Node(word));
+                live++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    @Override
+    public void remove(String word) {
+        Node node = root;
+        while (node != null) {
+            int d = metric.applyAsInt(word, node.word);
+            if (d == 0) {
+                if (!node.deleted) {
+                    node.deleted = true;
+                    deleted++;
+                    live--;
+                    // Tombstones keep the tree shape valid; rebuild once they dominate.
+                    if (deleted > live) rebuild();
+                }
+                return;
+            }
+            node = node.children == null ? null : node.children.get(d);
+        }
+    }
+
+    @Override
+    public List<String> search(String query, int maxDistance) {
+        List<String> result = new ArrayList<>();
+        if (root == null) return result;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int d = metric.applyAsInt(query, node.word);
+            if (d <= maxDistance && !node.deleted) {
+                result.add(node.word);
+            }
+            if (node.children == null) continue;
+            for (int k = Math.max(1, d - maxDistance); k <= d + maxDistance; k++) {
+                Node child = node.children.get(k);
+                if (child != null) stack.push(child);
+            }
+        }
+        return result;
+    }
+
+    private void rebuild() {
+        List<String> words = new ArrayList<>(live);
+        Deque<Node> stack = new ArrayDeque<>();
+        if (root != null) stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!node.deleted) words.add(node.word);
+            if (node.children != null) {
+                for (Node child : node.children.values()) stack.push(child);
+            }
+        }
+        root = null;
+        live = 0;
+        deleted = 0;
+        for (String w : words) add(w);
+    }
+}
+
+// Groups words by their Metaphone code so that sound-alike misspellings ("fone" / "phone") can be
+// found without widening the edit-distance search.
+class PhoneticIndex {
+    private final Map<String, Set<String>> buckets = new HashMap<>();
+
+    public void add(String word) {
+        String code = encode(word);
+        if (!code.isEmpty()) buckets.computeIfAbsent(code, k -> new HashSet<>()).add(word);
+    }
+
+    public void remove(String word) {
+        String code = encode(word);
+        Set<String> bucket = buckets.get(code);
+        if (bucket != null && bucket.remove(word) && bucket.isEmpty()) {
+            buckets.remove(code);
+        }
+    }
+
+    public Set<String> bucket(String word) {
+        Set<String> bucket = buckets.get(encode(word));
+        return bucket != null ? Collections.unmodifiableSet(bucket) : Collections.emptySet();
+    }
+
+    // Original (single) Metaphone, restricted to ASCII letters.
+    public static String encode(String word) {
+        StringBuilder letters = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = Character.toUpperCase(word.charAt(i));
+            if (c >= 'A' && c <= 'Z') letters.append(c);
+        }
+        String w = letters.toString();
+        int n = w.length();
+        if (n == 0) return "";
+        int i = 0;
+        if (w.startsWith("AE") || w.startsWith("GN") || w.startsWith("KN")
+                || w.startsWith("PN") || w.startsWith("WR")) {
+            i = 1;
+        }
+        StringBuilder code = new StringBuilder();
+        if (w.charAt(0) == 'X') {
+            code.append('S');
+            i = 1;
+        } else if (w.startsWith("WH")) {
+            code.append('W');
+            i = 2;
+        }
+        for (; i < n; i++) {
+            char c = w.charAt(i);
+            char prev = i > 0 ? w.charAt(i - 1) : 0;
+            char next = i + 1 < n ? w.charAt(i + 1) : 0;
+            char next2 = i + 2 < n ? w.charAt(i + 2) : 0;
+            if (c == prev && c != 'C') continue;
+            switch (c) {
+                case 'A': case 'E': case 'I': case 'O': case 'U':
+                    if (i == 0) code.append(c);
+                    break;
+                case 'B':
+                    if (!(prev == 'M' && i == n - 1)) code.append('B');
+                    break;
+                case 'C':
+                    if (next == 'I' && next2 == 'A') {
+                        code.append('X');
+                    } else if (next == 'H') {
+                        code.append(prev == 'S' ? 'K' : 'X');
+                        i++;
+                    } else if (next == 'I' || next == 'E' || next == 'Y') {
+                        if (prev != 'S') code.append('S');
+                    } else {
+                        code.append('K');
+                    }
+                    break;
+                case 'D':
+                    if (next == 'G' && (next2 == 'E' || next2 == 'Y' || next2 == 'I')) {
+                        code.append('J');
+                        i++;
+                    } else {
+                        code.append('T');
+                    }
+                    break;
+                case 'G':
+                    if (next == 'H' && !(i + 2 < n && isVowel(next2))) {
+                        break;
+                    }
+                    if (next == 'N' && (i + 2 == n || (w.startsWith("ED", i + 2) && i + 4 == n))) {
+                        break;
+                    }
+                    code.append(next == 'I' || next == 'E' || next == 'Y' ? 'J' : 'K');
+                    break;
+                case 'H':
+                    if (isVowel(next) && "CSPTG".indexOf(prev) < 0) code.append('H');
+                    break;
+                case 'K':
+                    if (prev != 'C') code.append('K');
+                    break;
+                case 'P':
+                    if (next == 'H') {
+                        code.append('F');
+                        i++;
+                    } else {
+                        code.append('P');
+                    }
+                    break;
+                case 'Q':
+                    code.append('K');
+                    break;
+                case 'S':
+                    if (next == 'H') {
+                        code.append('X');
+                        i++;
+                    } else if (next == 'I' && (next2 == 'O' || next2 == 'A')) {
+                        code.append('X');
+                    } else {
+                        code.append('S');
+                    }
+                    break;
+                case 'T':
+                    if (next == 'I' && (next2 == 'O' || next2 == 'A')) {
+                        code.append('X');
+                    } else if (next == 'H') {
+                        code.append('0');
+                        i++;
+                    } else if (!(next == 'C' && next2 == 'H')) {
+                        code.append('T');
+                    }
+                    break;
+                case 'V':
+                    code.append('F');
+                    break;
+                case 'W':
+                case 'Y':
+                    if (isVowel(next)) code.append(c);
+                    break;
+                case 'X':
+                    code.append("KS");
+                    break;
+                case 'Z':
+                    code.append('S');
+                    break;
+                default:
+                    code.append(c);
+            }
+        }
+        return code.toString();
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'A' || c == 'E' || c == 'I' || c == 'O' || c == 'U';
+    }
+}
+
+class CompactDictionary extends AbstractSet<String> {
+    private static final int MAGIC = 0x43444943;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 16;
+    private static final int HEADER_SIZE = 24;
+
+    private final ByteBuffer data;
+    private final int wordCount;
+    private final int blockCount;
+    private final int maxWordBytes;
+    private final int dataStart;
+
+    // Layout: header, int offset per block of 16 words, then front-coded UTF-8 blocks.
+    // Each block opens with a full word; the rest store (shared prefix, suffix) against the previous word.
+    private CompactDictionary(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a compact dictionary file");
+        }
+        wordCount = data.getInt(8);
+        blockCount = data.getInt(12);
+        maxWordBytes = data.getInt(16);
+        dataStart = HEADER_SIZE + 4 * blockCount;
+    }
+
+    public static CompactDictionary open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return new CompactDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static boolean isCompact(String path) {
+        File file = new File(path);
+        if (file.length() < HEADER_SIZE) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void compile(String textPath, String compactPath) throws IOException {
+        List<String> words = new ArrayList<>();
+        DictionaryFiles.readWords(textPath, words::add);
+        write(words, compactPath);
+    }
+
+    public static void write(Collection<String> words, String path) throws IOException {
+        List<byte[]> sorted = new ArrayList<>(words.size());
+        for (String w : words) sorted.add(w.getBytes(StandardCharsets.UTF_8));
+        sorted.sort(CompactDictionary::compareBytes);
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        byte[] prev = null;
+        int count = 0;
+        int maxBytes = 0;
+        for (byte[] w : sorted) {
+            if (prev != null && compareBytes(prev, w) == 0) continue;
+            maxBytes = Math.max(maxBytes, w.length);
+            if (count % BLOCK_SIZE == 0) {
+                offsets.add(blocks.size());
+                writeVarint(blocks, w.length);
+                blocks.write(w, 0, w.length);
+            } else {
+                int shared = 0;
+                int limit = Math.min(prev.length, w.length);
+                while (shared < limit && prev[shared] == w[shared]) shared++;
+                writeVarint(blocks, shared);
+                writeVarint(blocks, w.length - shared);
+                blocks.write(w, shared, w.length - shared);
+            }
+            prev = w;
+            count++;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(offsets.size());
+            out.writeInt(maxBytes);
+            out.writeInt(0);
+            for (int off : offsets) out.writeInt(off);
+            blocks.writeTo(out);
+        }
+    }
+
+    @Override
+    public int size() {
+        return wordCount;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String) || blockCount == 0) return false;
+        byte[] key = ((String) o).getBytes(StandardCharsets.UTF_8);
+        if (key.length > maxWordBytes) return false;
+        int[] cursor = new int[1];
+
+        int lo = 0;
+        int hi = blockCount - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            cursor[0] = blockStart(mid);
+            int len = readVarint(cursor);
+            int cmp = compareMapped(cursor[0], len, key);
+            if (cmp == 0) return true;
+            if (cmp < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return false;
+
+        byte[] word = new byte[maxWordBytes];
+        cursor[0] = blockStart(block);
+        int len = readVarint(cursor);
+        data.get(cursor[0], word, 0, len);
+        cursor[0] += len;
+        int end = block + 1 < blockCount ? blockStart(block + 1) : data.limit();
+        while (cursor[0] < end) {
+            int shared = readVarint(cursor);
+            int suffix = readVarint(cursor);
+            data.get(cursor[0], word, shared, suffix);
+            cursor[0] += suffix;
+            len = shared + suffix;
+            int cmp = compareBytes(word, len, key);
+            if (cmp == 0) return true;
+            if (cmp > 0) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final int[] cursor = { dataStart };
+            private final byte[] word = new byte[maxWordBytes];
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < wordCount;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int shared = index % BLOCK_SIZE == 0 ? 0 : readVarint(cursor);
+                int suffix = readVarint(cursor);
+                data.get(cursor[0], word, shared, suffix);
+                cursor[0] += suffix;
+                index++;
+                return new String(word, 0, shared + suffix, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    private int blockStart(int block) {
+        return dataStart + data.getInt(HEADER_SIZE + 4 * block);
+    }
+
+    private int readVarint(int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private int compareMapped(int pos, int len, byte[] key) {
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (data.get(pos + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return len - key.length;
+    }
+
+    private static int compareBytes(byte[] a, int len, byte[] key) {
+        return Arrays.compareUnsigned(a, 0, len, key, 0, key.length);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
+
+// Mutable view over a read-only base set; edits live in small overlay sets until the next save.
+class LayeredDictionary extends AbstractSet<String> {
+    private final Set<String> base;
+    private final Set<String> added = new HashSet<>();
+    private final Set<String> removed = new HashSet<>();
+
+    public LayeredDictionary(Set<String> base) {
+        this.base = base;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return added.contains(o) || (!removed.contains(o) && base.contains(o));
+    }
+
+    @Override
+    public boolean add(String word) {
+        if (contains(word)) return false;
+        if (!removed.remove(word)) added.add(word);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) return false;
+        if (!added.remove(o)) removed.add((String) o);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return base.size() - removed.size() + added.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        Iterator<String> fromBase = base.stream().filter(w -> !removed.contains(w)).iterator();
+        Iterator<String> fromAdded = added.iterator();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return fromBase.hasNext() || fromAdded.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return fromBase.hasNext() ? fromBase.next() : fromAdded.next();
+            }
+        };
+    }
+}
+
+// Word additions and removals are appended to numbered segment files next to the base dictionary.
+// Once enough records pile up, the current segment is sealed and a background thread rewrites the
+// base from a snapshot, then deletes the sealed segments. Replay is idempotent, so a crash between
+// those two steps only costs a redundant replay.
+class DictionaryJournal implements Closeable {
+    interface BaseWriter {
+        void write(Collection<String> words, String path) throws IOException;
+    }
+
+    private static final int COMPACT_THRESHOLD = 10_000;
+    private final String basePath;
+    private final String segmentPrefix;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dictionary-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> compaction;
+    private BufferedWriter writer;
+    private int segment;
+    private int records;
+
+    public DictionaryJournal(String basePath) {
+        this.basePath = basePath;
+        this.segmentPrefix = new File(basePath).getName() + ".journal.";
+    }
+
+    public synchronized void replay(Consumer<String> onAdd, Consumer<String> onRemove) throws IOException {
+        for (int n : segments()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(segmentFile(n)))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() < 2) continue;
+                    if (line.charAt(0) == '+') {
+                        onAdd.accept(line.substring(1));
+                    } else if (line.charAt(0) == '-') {
+                        onRemove.accept(line.substring(1));
+                    } else {
+                        continue;
+                    }
+                    records++;
+                }
+            }
+            segment = Math.max(segment, n);
+        }
+    }
+
+    public synchronized void logAdd(Collection<String> words) throws IOException {
+        append('+', words);
+    }
+
+    public synchronized void logRemove(Collection<String> words) throws IOException {
+        append('-', words);
+    }
+
+    public synchronized void compactIfNeeded(Supplier<Collection<String>> snapshot, BaseWriter baseWriter)
+            throws IOException {
+        if (records < COMPACT_THRESHOLD || (compaction != null && !compaction.isDone())) return;
+        int sealed = segment;
+        closeWriter();
+        segment++;
+        records = 0;
+        Collection<String> words = snapshot.get();
+        compaction = compactor.submit(() -> {
+            try {
+                String tmp = basePath + ".tmp";
+                baseWriter.write(words, tmp);
+                Files.move(Paths.get(tmp), Paths.get(basePath),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                for (int n : segments()) {
+                    if (n <= sealed) Files.deleteIfExists(segmentFile(n).toPath());
+                }
+            } catch (IOException e) {
+                System.err.println("Error compacting dictionary journal: " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeWriter();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(char op, Collection<String> words) throws IOException {
+        if (words.isEmpty()) return;
+        if (writer == null) {
+            if (segment == 0) segment = 1;
+            writer = new BufferedWriter(new FileWriter(segmentFile(segment), true));
+        }
+        for (String w : words) {
+            writer.write(op);
+            writer.write(w);
+            writer.newLine();
+        }
+        writer.flush();
+        records += words.size();
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private File segmentFile(int n) {
+        return new File(basePath + ".journal." + n);
+    }
+
+    private List<Integer> segments() {
+        File dir = new File(basePath).getAbsoluteFile().getParentFile();
+        List<Integer> result = new ArrayList<>();
+        String[] names = dir != null ? dir.list() : null;
+        if (names == null) return result;
+        for (String name : names) {
+            if (!name.startsWith(segmentPrefix)) continue;
+            try {
+                result.add(Integer.parseInt(name.substring(segmentPrefix.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
+
+// Plain-text and compact dictionary files shared by the spell checkers and the censor module.
+// Text files hold one word per line; words are trimmed and lower-cased on the way in.
+class DictionaryFiles {
+    static void readWords(String path, Consumer<String> onWord) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim().toLowerCase();
+                if (!line.isEmpty()) onWord.accept(line);
+            }
+        }
+    }
+
+    static void write(Collection<String> words, String path, boolean compact) throws IOException {
+        if (compact) {
+            CompactDictionary.write(words, path);
+            return;
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            for (String word : words) {
+                writer.write(word);
+                writer.newLine();
+            }
+        }
+    }
+}
+
+class SuggestionCache {
+    private final LinkedHashMap<String, List<String>> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private int capacity;
+    private long generation;
+
+    public SuggestionCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                if (size() > SuggestionCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized List<String> get(String key) {
+        List<String> value = entries.get(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // Drops the value if the cache was invalidated after the caller read `generation`.
+    public synchronized void put(String key, List<String> value, long generation) {
+        if (generation == this.generation && capacity > 0) {
+            entries.put(key, value);
+        }
+    }
+
+    public synchronized void invalidate() {
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d, hit rate=%.1f%%",
+                size(), capacity, hits(), misses(), evictions(), hitRate() * 100);
+    }
+}
+
+class Misspelling {
+    private final int line;
+    private final int column;
+    private final String word;
+    private final List<String> suggestions;
+
+    public Misspelling(int line, int column, String word, List<String> suggestions) {
+        this.line = line;
+        this.column = column;
+        this.word = word;
+        this.suggestions = suggestions;
+    }
+
+    public int getLine() { return line; }
+    public int getColumn() { return column; }
+    public String getWord() { return word; }
+    public List<String> getSuggestions() { return suggestions; }
+
+    @Override
+    public String toString() {
+        return line + "\t" + column + "\t" + word + "\t" + String.join(",", suggestions);
+    }
+}
 
  class SpellChecker {
+    private static final int BATCH_CHUNK_LINES = 512;
+    private static final int DEFAULT_CACHE_CAPACITY = 10_000;
+    private static final int PHONETIC_EXTRA_DISTANCE = 2;
     private Set<String> dictionary;
     private String dictionaryFilePath;
+    private SuggestionIndex suggestionIndex;
+    private final EditDistance levenshtein = new EditDistance(false);
+    private EditDistance rankingDistance = levenshtein;
+    private int maxDistance = 1;
+    private final SuggestionCache suggestionCache = new SuggestionCache(DEFAULT_CACHE_CAPACITY);
+    private boolean compact;
+    private volatile boolean indexBuilt;
+    private final PhoneticIndex phoneticIndex = new PhoneticIndex();
+    private boolean phoneticSuggestions = true;
+    private DictionaryJournal journal;
 
 
     public SpellChecker(String dictionaryFilePath) {
+        this(dictionaryFilePath, null);
+    }
+
+
+    public SpellChecker(String dictionaryFilePath, SuggestionIndex suggestionIndex) {
         this.dictionaryFilePath = dictionaryFilePath;
+        this.suggestionIndex = suggestionIndex != null
+                ? suggestionIndex
+                : new BKTreeIndex(this::getLevenshteinDistance);
         dictionary = new HashSet<>();
         loadDictionary();
     }
 
 
     private void loadDictionary() {
+        loadBase();
+        journal = new DictionaryJournal(dictionaryFilePath);
+        try {
+            journal.replay(this::applyAdd, this::applyRemove);
+        } catch (IOException e) {
+            System.err.println("Error replaying dictionary journal: " + e.getMessage());
+        }
+    }
+
+
+    private void loadBase() {
         File file = new File(dictionaryFilePath);
+        if (CompactDictionary.isCompact(dictionaryFilePath)) {
+            // Membership is answered from the mapped file; the suggestion index is built on first use.
+            try {
+                dictionary = new LayeredDictionary(CompactDictionary.open(dictionaryFilePath));
+                compact = true;
+            } catch (IOException e) {
+                System.err.println("Error reading dictionary file: " + e.getMessage());
+            }
+            return;
+        }
+        indexBuilt = true;
         if (!file.exists()) {
             try {
                 file.createNewFile();
@@ -24,151 +1036,696 @@ import java.util.regex.*;
             }
             return;
         }
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        try {
+            DictionaryFiles.readWords(dictionaryFilePath, word -> {
+                if (dictionary.add(word)) {
+                    suggestionIndex.add(word);
+                    phoneticIndex.add(word);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading dictionary file: " + e.getMessage());
+        }
+    }
+
+
+    private synchronized void ensureIndex() {
+        if (indexBuilt) return;
+        for (String word : dictionary) {
+            suggestionIndex.add(word);
+            phoneticIndex.add(word);
+        }
+        indexBuilt = true;
+    }
+
+
+    private boolean applyAdd(String w) {
+        if (!dictionary.add(w)) return false;
+        if (indexBuilt) {
+            suggestionIndex.add(w);
+            phoneticIndex.add(w);
+        }
+        return true;
+    }
+
+
+    private boolean applyRemove(String w) {
+        if (!dictionary.remove(w)) return false;
+        if (indexBuilt) {
+            suggestionIndex.remove(w);
+            phoneticIndex.remove(w);
+        }
+        return true;
+    }
+
+
+    private void logChange(boolean added, Collection<String> words) {
+        try {
+            if (added) {
+                journal.logAdd(words);
+            } else {
+                journal.logRemove(words);
+            }
+            journal.compactIfNeeded(() -> new ArrayList<>(dictionary),
+                    (snapshot, path) -> DictionaryFiles.write(snapshot, path, compact));
+        } catch (IOException e) {
+            System.err.println("Error writing dictionary journal: " + e.getMessage());
+        }
+    }
+
+
+    public void addWord(String word) {
+        String w = word.toLowerCase();
+        if (applyAdd(w)) {
+            suggestionCache.invalidate();
+            logChange(true, Collections.singletonList(w));
+            System.out.println("Added word: " + w);
+        } else {
+            System.out.println("Word already in dictionary: " + w);
+        }
+    }
+
+
+    public int addWords(Collection<String> words) {
+        List<String> added = new ArrayList<>();
+        for (String word : words) {
+            String w = word.trim().toLowerCase();
+            if (!w.isEmpty() && applyAdd(w)) added.add(w);
+        }
+        if (!added.isEmpty()) {
+            suggestionCache.invalidate();
+            logChange(true, added);
+        }
+        System.out.println("Added " + added.size() + " words");
+        return added.size();
+    }
+
+
+    public void removeWord(String word) {
+        String w = word.toLowerCase();
+        if (applyRemove(w)) {
+            suggestionCache.invalidate();
+            logChange(false, Collections.singletonList(w));
+            System.out.println("Removed word: " + w);
+        } else {
+            System.out.println("Word not found in dictionary: " + w);
+        }
+    }
+
+
+    public void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing dictionary journal: " + e.getMessage());
+        }
+    }
+
+     int getLevenshteinDistance(String a, String b) {
+        return levenshtein.distance(a, b, Integer.MAX_VALUE);
+    }
+
+
+    public void setMaxDistance(int maxDistance) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance must not be negative: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+    }
+
+
+    public void setTranspositions(boolean transpositions) {
+        rankingDistance = transpositions ? new EditDistance(true) : levenshtein;
+        suggestionCache.invalidate();
+    }
+
+
+    public void setPhoneticSuggestions(boolean phoneticSuggestions) {
+        this.phoneticSuggestions = phoneticSuggestions;
+        suggestionCache.invalidate();
+    }
+
+
+    public SuggestionCache getSuggestionCache() {
+        return suggestionCache;
+    }
+
+
+    public List<String> suggestWords(String input) {
+        return suggestWords(input, maxDistance);
+    }
+
+
+    public List<String> suggestWords(String input, int maxDistance) {
+        String in = input.toLowerCase();
+        String key = maxDistance + ":" + in;
+        long generation = suggestionCache.generation();
+        List<String> cached = suggestionCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        ensureIndex();
+        // The index is built on plain Levenshtein; a transposition counts as two edits there.
+        int radius = rankingDistance.allowsTranspositions() ? 2 * maxDistance : maxDistance;
+        List<String> suggestions = rankSuggestions(in, suggestionIndex.search(in, radius),
+                phoneticSuggestions ? phoneticIndex.bucket(in) : null, rankingDistance, maxDistance);
+        suggestions = Collections.unmodifiableList(suggestions);
+        suggestionCache.put(key, suggestions, generation);
+        return suggestions;
+    }
+
+
+    // Orders candidates by distance, then alphabetically. Sound-alikes (may be null) a little further
+    // away in edit distance follow the close matches.
+    static List<String> rankSuggestions(String in, Iterable<String> candidates, Iterable<String> soundAlikes,
+                                        EditDistance distance, int maxDistance) {
+        List<List<String>> byDistance = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String word : candidates) {
+            int d = distance.distance(in, word, maxDistance);
+            if (d > maxDistance) continue;
+            addRanked(byDistance, word, d);
+            seen.add(word);
+        }
+        List<String> suggestions = new ArrayList<>();
+        for (List<String> bucket : byDistance) {
+            Collections.sort(bucket);
+            suggestions.addAll(bucket);
+        }
+        if (soundAlikes != null) {
+            int limit = maxDistance + PHONETIC_EXTRA_DISTANCE;
+            List<List<String>> phonetic = new ArrayList<>();
+            for (String word : soundAlikes) {
+                if (seen.contains(word)) continue;
+                int d = distance.distance(in, word, limit);
+                if (d <= limit) addRanked(phonetic, word, d);
+            }
+            for (List<String> bucket : phonetic) {
+                Collections.sort(bucket);
+                suggestions.addAll(bucket);
+            }
+        }
+        return suggestions;
+    }
+
+
+    private static void addRanked(List<List<String>> byDistance, String word, int d) {
+        while (byDistance.size() <= d) byDistance.add(new ArrayList<>());
+        byDistance.get(d).add(word);
+    }
+
+
+    public void processFile(String inputPath, String outputPath) {
+        TextTokenizer tokenizer = new TextTokenizer();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath))) {
             String line;
+            Scanner console = new Scanner(System.in);
             while ((line = reader.readLine()) != null) {
-                line = line.trim().toLowerCase();
-                if (!line.isEmpty()) {
-                    dictionary.add(line);
+                tokenizer.reset(line);
+                while (tokenizer.next()) {
+                    if (!tokenizer.isWord()) {
+                        output.append(line, tokenizer.start(), tokenizer.end());
+                        continue;
+                    }
+                    String token = tokenizer.token();
+                    String lower = token.toLowerCase();
+                    if (!dictionary.contains(lower)) {
+                        System.out.println("Misspelled: '" + token + "'");
+                        List<String> sugg = suggestWords(lower);
+                        if (!sugg.isEmpty()) {
+                            System.out.println("Suggestions: " + sugg);
+                            System.out.print("Use '" + sugg.get(0) + "'? (y/n/c): ");
+                            String choice = console.nextLine().trim().toLowerCase();
+                            if (choice.equals("y")) {
+                                token = matchCase(token, sugg.get(0));
+                            } else if (choice.equals("c")) {
+                                System.out.print("Enter replacement: ");
+                                String custom = console.nextLine();
+                                token = custom;
+                            }
+                        }
+                    }
+                    output.append(token);
                 }
+                output.append('\n');
             }
+            console.close();
+            // Write output
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath))) {
+                writer.append(output);
+            }
+            System.out.println("Processed file written to " + outputPath);
         } catch (IOException e) {
-            System.err.println("Error reading dictionary file: " + e.getMessage());
+            System.err.println("Error processing file: " + e.getMessage());
+        }
+    }
+
+
+    // Non-interactive: reports every misspelling and, if correctedPath is given, applies the top suggestion.
+    public List<Misspelling> processFileBatch(String inputPath, String reportPath, String correctedPath) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error processing file: " + e.getMessage());
+            return Collections.emptyList();
+        }
+        ensureIndex();
+        String[] corrected = correctedPath != null ? new String[lines.size()] : null;
+        List<Misspelling> misspellings = ForkJoinPool.commonPool()
+                .invoke(new BatchTask(lines, corrected, 0, lines.size()));
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(reportPath))) {
+            writer.write("line\tcolumn\tword\tsuggestions");
+            writer.newLine();
+            for (Misspelling m : misspellings) {
+                writer.write(m.toString());
+                writer.newLine();
+            }
+            System.out.println("Misspelling report written to " + reportPath);
+        } catch (IOException e) {
+            System.err.println("Error writing report: " + e.getMessage());
+        }
+        if (corrected != null) {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(correctedPath))) {
+                for (String line : corrected) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                System.out.println("Corrected file written to " + correctedPath);
+            } catch (IOException e) {
+                System.err.println("Error writing corrected file: " + e.getMessage());
+            }
+        }
+        return misspellings;
+    }
+
+
+    private class BatchTask extends RecursiveTask<List<Misspelling>> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> lines;
+        private final String[] corrected;
+        private final int from;
+        private final int to;
+
+        BatchTask(List<String> lines, String[] corrected, int from, int to) {
+            this.lines = lines;
+            this.corrected = corrected;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Misspelling> compute() {
+            if (to - from > BATCH_CHUNK_LINES) {
+                int mid = (from + to) >>> 1;
+                BatchTask left = new BatchTask(lines, corrected, from, mid);
+                left.fork();
+                List<Misspelling> right = new BatchTask(lines, corrected, mid, to).compute();
+                List<Misspelling> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            List<Misspelling> result = new ArrayList<>();
+            TextTokenizer tokenizer = new TextTokenizer();
+            StringBuilder out = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                String line = lines.get(i);
+                tokenizer.reset(line);
+                out.setLength(0);
+                while (tokenizer.next()) {
+                    if (!tokenizer.isWord()) {
+                        out.append(line, tokenizer.start(), tokenizer.end());
+                        continue;
+                    }
+                    String token = tokenizer.token();
+                    if (!dictionary.contains(token.toLowerCase())) {
+                        List<String> sugg = suggestWords(token);
+                        result.add(new Misspelling(i + 1, tokenizer.start() + 1, token, sugg));
+                        if (!sugg.isEmpty()) {
+                            token = matchCase(token, sugg.get(0));
+                        }
+                    }
+                    out.append(token);
+                }
+                if (corrected != null) {
+                    corrected[i] = out.toString();
+                }
+            }
+            return result;
+        }
+    }
+
+
+    public boolean contains(String word) {
+        return dictionary.contains(word.toLowerCase());
+    }
+
+
+    // Returns the token with its top suggestion applied, or unchanged if it is spelled correctly.
+    public String autoCorrect(String token) {
+        if (dictionary.contains(token.toLowerCase())) {
+            return token;
+        }
+        List<String> sugg = suggestWords(token);
+        return sugg.isEmpty() ? token : matchCase(token, sugg.get(0));
+    }
+
+
+    private String matchCase(String original, String suggestion) {
+        if (Character.isUpperCase(original.charAt(0))) {
+            return suggestion.substring(0,1).toUpperCase() + suggestion.substring(1);
+        }
+        return suggestion;
+    }
+}
+
+
+
+class ExpletiveMatcher {
+    static final class Node {
+        final Map<Character, Node> next = new HashMap<>();
+        final int depth;
+        Node fail;
+        int patterns;
+        int matchLength;
+
+        Node(int depth) {
+            this.depth = depth;
         }
     }
 
+    private final Node root = new Node(0);
+    private boolean linksStale;
 
-    private void saveDictionary() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dictionaryFilePath))) {
-            for (String word : dictionary) {
-                writer.write(word);
-                writer.newLine();
+    // Phrases are stored as " w1 w2 ... " so matches only start and end on word boundaries.
+    static String normalize(String phrase) {
+        StringBuilder sb = new StringBuilder(phrase.length() + 2).append(' ');
+        boolean inWord = false;
+        for (int i = 0; i < phrase.length(); i++) {
+            char c = phrase.charAt(i);
+            if (TextTokenizer.isWordChar(c)) {
+                sb.append(Character.toLowerCase(c));
+                inWord = true;
+            } else if (inWord) {
+                sb.append(' ');
+                inWord = false;
             }
-        } catch (IOException e) {
-            System.err.println("Error writing dictionary file: " + e.getMessage());
         }
+        if (inWord) sb.append(' ');
+        return sb.length() > 1 ? sb.toString() : null;
     }
 
+    public void add(String phrase) {
+        String key = normalize(phrase);
+        if (key == null) return;
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            Node child = node.next.get(key.charAt(i));
+            if (child == null) {
+                child = new Node(node.depth + 1);
+                node.next.put(key.charAt(i), child);
+            }
+            node = child;
+        }
+        node.patterns++;
+        linksStale = true;
+    }
 
-    public void addWord(String word) {
-        String w = word.toLowerCase();
-        if (dictionary.add(w)) {
-            saveDictionary();
-            System.out.println("Added word: " + w);
-        } else {
-            System.out.println("Word already in dictionary: " + w);
+    public void remove(String phrase) {
+        String key = normalize(phrase);
+        if (key == null) return;
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.next.get(key.charAt(i));
+        }
+        if (node != null && node.patterns > 0) {
+            node.patterns--;
+            linksStale = true;
         }
     }
 
+    Node root() {
+        if (linksStale) buildLinks();
+        return root;
+    }
 
-    public void removeWord(String word) {
-        String w = word.toLowerCase();
-        if (dictionary.remove(w)) {
-            saveDictionary();
-            System.out.println("Removed word: " + w);
-        } else {
-            System.out.println("Word not found in dictionary: " + w);
+    Node step(Node state, char c) {
+        while (state != root && !state.next.containsKey(c)) {
+            state = state.fail;
         }
+        Node next = state.next.get(c);
+        return next != null ? next : root;
     }
 
-     int getLevenshteinDistance(String a, String b) {
-        int[][] dp = new int[a.length() + 1][b.length() + 1];
-        for (int i = 0; i <= a.length(); i++) dp[i][0] = i;
-        for (int j = 0; j <= b.length(); j++) dp[0][j] = j;
-        for (int i = 1; i <= a.length(); i++) {
-            for (int j = 1; j <= b.length(); j++) {
-                int cost = (a.charAt(i-1) == b.charAt(j-1)) ? 0 : 1;
-                dp[i][j] = Math.min(
-                        Math.min(dp[i-1][j] + 1, dp[i][j-1] + 1),
-                        dp[i-1][j-1] + cost
-                );
+    // Trie edits are applied in place; failure links are recomputed lazily before the next scan.
+    private void buildLinks() {
+        Deque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Node u = queue.poll();
+            for (Map.Entry<Character, Node> e : u.next.entrySet()) {
+                Node v = e.getValue();
+                Node f = u.fail;
+                while (f != root && !f.next.containsKey(e.getKey())) {
+                    f = f.fail;
+                }
+                Node t = f.next.get(e.getKey());
+                v.fail = t != null && t != v ? t : root;
+                v.matchLength = v.patterns > 0 ? v.depth : v.fail.matchLength;
+                queue.add(v);
             }
         }
-        return dp[a.length()][b.length()];
+        linksStale = false;
     }
+}
 
+class CensorStage extends TokenStage {
+    private static final String REPLACEMENT = "[CENSORED]";
+    private final ExpletiveMatcher matcher;
+    private ExpletiveMatcher.Node state;
+    private long pos;
 
-    public List<String> suggestWords(String input) {
-        List<String> suggestions = new ArrayList<>();
-        String in = input.toLowerCase();
-        for (String word : dictionary) {
-            if (getLevenshteinDistance(in, word) <= 1) {
-                suggestions.add(word);
+    // Tokens that may still become part of a match are held back until the automaton moves past them.
+    private final StringBuilder held = new StringBuilder();
+    private int[] heldStart = new int[16];
+    private long[] normStart = new long[16];
+    private long[] normEnd = new long[16];
+    private boolean[] isWord = new boolean[16];
+    private boolean[] flagged = new boolean[16];
+    private int head;
+    private int count;
+    private boolean open;
+    private boolean inCensoredRun;
+
+    public CensorStage(ExpletiveMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    @Override
+    protected void reset() {
+        held.setLength(0);
+        head = 0;
+        count = 0;
+        open = false;
+        inCensoredRun = false;
+        pos = 0;
+        state = matcher.root();
+        feed(' ');
+    }
+
+    // Consecutive tokens of the same kind are merged, so callers may split runs freely.
+    @Override
+    public void token(CharSequence text, int start, int end, boolean word) throws IOException {
+        if (!open || word != isWord[count - 1]) {
+            beginToken(word);
+        }
+        held.append(text, start, end);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (word) {
+                feed(Character.toLowerCase(c));
+            } else if (c == '\n') {
+                // Phrases never span lines.
+                state = matcher.root();
+                feed(' ');
             }
         }
-        return suggestions;
+        normEnd[count - 1] = pos - 1;
     }
 
+    @Override
+    public void finish() throws IOException {
+        feed(' ');
+        open = false;
+        emit(count);
+        next.finish();
+    }
 
-    public void processFile(String inputPath, String outputPath) {
-        Pattern tokenPattern = Pattern.compile("(\\w+)|(\\W+)");
-        List<String> outputTokens = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath))) {
-            String line;
-            Scanner console = new Scanner(System.in);
-            while ((line = reader.readLine()) != null) {
-                Matcher matcher = tokenPattern.matcher(line);
-                while (matcher.find()) {
-                    String token = matcher.group();
-                    if (token.matches("\\w+")) {
-                        String lower = token.toLowerCase();
-                        if (!dictionary.contains(lower)) {
-                            System.out.println("Misspelled: '" + token + "'");
-                            List<String> sugg = suggestWords(lower);
-                            if (!sugg.isEmpty()) {
-                                System.out.println("Suggestions: " + sugg);
-                                System.out.print("Use '" + sugg.get(0) + "'? (y/n/c): ");
-                                String choice = console.nextLine().trim().toLowerCase();
-                                if (choice.equals("y")) {
-                                    token = matchCase(token, sugg.get(0));
-                                } else if (choice.equals("c")) {
-                                    System.out.print("Enter replacement: ");
-                                    String custom = console.nextLine();
-                                    token = custom;
-                                }
-                            }
-                        }
-                    }
-                    outputTokens.add(token);
-                }
-                outputTokens.add("\n");
+    private void beginToken(boolean word) throws IOException {
+        if (count == heldStart.length) grow();
+        heldStart[count] = held.length();
+        normStart[count] = pos;
+        normEnd[count] = pos;
+        isWord[count] = word;
+        flagged[count] = false;
+        count++;
+        open = true;
+        if (!word) feed(' ');
+        // The previous token is complete now; release whatever can no longer be matched.
+        long frontier = pos - state.depth;
+        int safe = head;
+        while (safe < count - 1 && normStart[safe] <= frontier) safe++;
+        emit(safe);
+    }
+
+    private void feed(char c) {
+        state = matcher.step(state, c);
+        int length = state.matchLength;
+        if (length > 0) {
+            long from = pos - length + 1;
+            for (int i = count - 1; i >= head && normStart[i] > from; i--) {
+                if (normEnd[i] < pos) flagged[i] = true;
             }
-            console.close();
-            // Write output
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath))) {
-                for (String tok : outputTokens) {
-                    writer.write(tok);
-                }
+        }
+        pos++;
+    }
+
+    private void emit(int upTo) throws IOException {
+        for (int i = head; i < upTo; i++) {
+            if (flagged[i]) {
+                // The replacement is passed on as an opaque (non-word) token.
+                if (!inCensoredRun) next.token(REPLACEMENT, 0, REPLACEMENT.length(), false);
+                inCensoredRun = true;
+                continue;
             }
-            System.out.println("Processed file written to " + outputPath);
-        } catch (IOException e) {
-            System.err.println("Error processing file: " + e.getMessage());
+            inCensoredRun = false;
+            int end = i + 1 < count ? heldStart[i + 1] : held.length();
+            next.token(held, heldStart[i], end, isWord[i]);
+        }
+        head = upTo;
+        if (head == 0) return;
+        int shift = head < count ? heldStart[head] : held.length();
+        held.delete(0, shift);
+        int remaining = count - head;
+        for (int i = 0; i < remaining; i++) {
+            heldStart[i] = heldStart[head + i] - shift;
+            normStart[i] = normStart[head + i];
+            normEnd[i] = normEnd[head + i];
+            isWord[i] = isWord[head + i];
+            flagged[i] = flagged[head + i];
         }
+        count = remaining;
+        head = 0;
     }
 
+    private void grow() {
+        int size = heldStart.length * 2;
+        heldStart = Arrays.copyOf(heldStart, size);
+        normStart = Arrays.copyOf(normStart, size);
+        normEnd = Arrays.copyOf(normEnd, size);
+        isWord = Arrays.copyOf(isWord, size);
+        flagged = Arrays.copyOf(flagged, size);
+    }
+}
 
-    private String matchCase(String original, String suggestion) {
-        if (Character.isUpperCase(original.charAt(0))) {
-            return suggestion.substring(0,1).toUpperCase() + suggestion.substring(1);
+class CensoringWriter extends Writer {
+    private final Writer out;
+    private final CensorStage stage;
+    private final TextTokenizer tokenizer = new TextTokenizer();
+    private final char[] single = new char[1];
+    private final CharBuffer singleView = CharBuffer.wrap(single);
+    private boolean finished;
+
+    public CensoringWriter(Writer out, ExpletiveMatcher matcher) {
+        this.out = out;
+        this.stage = new CensorStage(matcher);
+        stage.connect(new WriterSink(out));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        single[0] = (char) c;
+        stage.token(singleView, 0, 1, TextTokenizer.isWordChar(single[0]));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        scan(CharBuffer.wrap(cbuf), off, off + len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        scan(str, off, off + len);
+    }
+
+    private void scan(CharSequence text, int from, int to) throws IOException {
+        tokenizer.reset(text, from, to);
+        while (tokenizer.next()) {
+            stage.token(text, tokenizer.start(), tokenizer.end(), tokenizer.isWord());
         }
-        return suggestion;
     }
-}
 
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
 
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        stage.finish();
+    }
+}
 
 class CensorModule {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
     private Set<String> badWords;
     private String expletiveDictPath;
+    private ExpletiveMatcher matcher;
+    private boolean compact;
+    private DictionaryJournal journal;
 
     public CensorModule(String expletiveDictPath) {
         this.expletiveDictPath = expletiveDictPath;
         badWords = new HashSet<>();
+        matcher = new ExpletiveMatcher();
         loadExpletives();
     }
 
     private void loadExpletives() {
+        loadBase();
+        journal = new DictionaryJournal(expletiveDictPath);
+        try {
+            journal.replay(this::applyAdd, this::applyRemove);
+        } catch (IOException e) {
+            System.err.println("Error replaying expletive journal: " + e.getMessage());
+        }
+    }
+
+    private void loadBase() {
         File file = new File(expletiveDictPath);
+        if (CompactDictionary.isCompact(expletiveDictPath)) {
+            try {
+                for (String word : CompactDictionary.open(expletiveDictPath)) {
+                    if (badWords.add(word)) matcher.add(word);
+                }
+                compact = true;
+            } catch (IOException e) {
+                System.err.println("Error reading expletive file: " + e.getMessage());
+            }
+            return;
+        }
         if (!file.exists()) {
             try {
                 file.createNewFile();
@@ -177,77 +1734,510 @@ class CensorModule {
             }
             return;
         }
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim().toLowerCase();
-                if (!line.isEmpty()) badWords.add(line);
-            }
+        try {
+            DictionaryFiles.readWords(expletiveDictPath, word -> {
+                if (badWords.add(word)) matcher.add(word);
+            });
         } catch (IOException e) {
             System.err.println("Error reading expletive file: " + e.getMessage());
         }
     }
 
-    private void saveExpletiveDictionary() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(expletiveDictPath))) {
-            for (String word : badWords) {
-                writer.write(word);
-                writer.newLine();
+    private boolean applyAdd(String w) {
+        if (!badWords.add(w)) return false;
+        matcher.add(w);
+        return true;
+    }
+
+    private boolean applyRemove(String w) {
+        if (!badWords.remove(w)) return false;
+        matcher.remove(w);
+        return true;
+    }
+
+    private void logChange(boolean added, Collection<String> words) {
+        try {
+            if (added) {
+                journal.logAdd(words);
+            } else {
+                journal.logRemove(words);
             }
+            journal.compactIfNeeded(() -> new ArrayList<>(badWords),
+                    (snapshot, path) -> DictionaryFiles.write(snapshot, path, compact));
         } catch (IOException e) {
-            System.err.println("Error writing expletive file: " + e.getMessage());
+            System.err.println("Error writing expletive journal: " + e.getMessage());
         }
     }
 
     public void addExpletive(String word) {
         String w = word.toLowerCase();
-        if (badWords.add(w)) {
-            saveExpletiveDictionary();
+        if (applyAdd(w)) {
+            logChange(true, Collections.singletonList(w));
             System.out.println("Added expletive: " + w);
         } else {
             System.out.println("Expletive already exists: " + w);
         }
     }
 
+    public int addExpletives(Collection<String> words) {
+        List<String> added = new ArrayList<>();
+        for (String word : words) {
+            String w = word.trim().toLowerCase();
+            if (!w.isEmpty() && applyAdd(w)) added.add(w);
+        }
+        if (!added.isEmpty()) logChange(true, added);
+        System.out.println("Added " + added.size() + " expletives");
+        return added.size();
+    }
+
     public void removeExpletive(String word) {
         String w = word.toLowerCase();
-        if (badWords.remove(w)) {
-            saveExpletiveDictionary();
+        if (applyRemove(w)) {
+            logChange(false, Collections.singletonList(w));
             System.out.println("Removed expletive: " + w);
         } else {
             System.out.println("Expletive not found: " + w);
         }
     }
 
+    public void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing expletive journal: " + e.getMessage());
+        }
+    }
+
+
+    public CensorStage newStage() {
+        return new CensorStage(matcher);
+    }
+
 
     public void censorFile(String inputPath, String outputPath) {
-        Pattern tokenPattern = Pattern.compile("(\\w+)|(\\W+)");
-        List<String> outputTokens = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath));
+             CensoringWriter writer = new CensoringWriter(new BufferedWriter(new FileWriter(outputPath)), matcher)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                Matcher matcher = tokenPattern.matcher(line);
-                while (matcher.find()) {
-                    String token = matcher.group();
-                    if (token.matches("\\w+")) {
-                        if (badWords.contains(token.toLowerCase())) {
-                            token = "[CENSORED]";
-                        }
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.finish();
+            System.out.println("Censored file written to " + outputPath);
+        } catch (IOException e) {
+            System.err.println("Error censoring file: " + e.getMessage());
+        }
+    }
+
+
+    // Same output as censorFile, but reads through a fixed buffer and writes as it goes.
+    public void censorFileStreaming(String inputPath, String outputPath) {
+        Charset charset = Charset.defaultCharset();
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(STREAM_BUFFER_SIZE);
+        boolean lastWasCR = false;
+        boolean atLineStart = true;
+        try (FileChannel in = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+             CensoringWriter writer = new CensoringWriter(
+                     new BufferedWriter(new FileWriter(outputPath), STREAM_BUFFER_SIZE), matcher)) {
+            boolean eof = false;
+            while (!eof) {
+                eof = in.read(bytes) < 0;
+                bytes.flip();
+                decoder.decode(bytes, chars, eof);
+                if (eof) decoder.flush(chars);
+                bytes.compact();
+                char[] buf = chars.array();
+                int n = 0;
+                for (int i = 0; i < chars.position(); i++) {
+                    char c = buf[i];
+                    // readLine() treats \r, \n and \r\n alike; censorFile emits each as \n.
+                    if (c == '\n' && lastWasCR) {
+                        lastWasCR = false;
+                        continue;
                     }
-                    outputTokens.add(token);
+                    lastWasCR = c == '\r';
+                    atLineStart = c == '\n' || c == '\r';
+                    buf[n++] = c == '\r' ? '\n' : c;
                 }
-                outputTokens.add("\n");
+                writer.write(buf, 0, n);
+                chars.clear();
             }
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath))) {
-                for (String tok : outputTokens) {
-                    writer.write(tok);
-                }
+            if (!atLineStart) {
+                writer.write('\n');
             }
+            writer.finish();
             System.out.println("Censored file written to " + outputPath);
         } catch (IOException e) {
             System.err.println("Error censoring file: " + e.getMessage());
         }
     }
+
+}
+
+// Thread-safe variant of SpellChecker for serving. Readers work on an immutable snapshot taken from a
+// single volatile reference, so lookups never lock. Writers are serialized; each change publishes a
+// new snapshot that shares the large base (set + BK-tree) and copies only a small delta of recent
+// additions and removals. When the delta grows, a background thread folds it into a fresh base.
+// Changes are journaled on a separate thread so the caller never waits for disk.
+class ConcurrentSpellChecker {
+    private static final int MERGE_THRESHOLD = 1024;
+    private static final int DEFAULT_CACHE_CAPACITY = 10_000;
+
+    // The phonetic index covers the base only and is never modified once published. The suggestion
+    // cache belongs to the snapshot, so every published change starts with an empty one.
+    private static final class Snapshot {
+        final Set<String> base;
+        final SuggestionIndex index;
+        final PhoneticIndex phonetic;
+        final Set<String> added;
+        final Set<String> removed;
+        final long version;
+        final ConcurrentHashMap<String, List<String>> cache = new ConcurrentHashMap<>();
+
+        Snapshot(Set<String> base, SuggestionIndex index, PhoneticIndex phonetic, Set<String> added,
+                 Set<String> removed, long version) {
+            this.base = base;
+            this.index = index;
+            this.phonetic = phonetic;
+            this.added = added;
+            this.removed = removed;
+            this.version = version;
+        }
+
+        boolean contains(String w) {
+            return added.contains(w) || (!removed.contains(w) && base.contains(w));
+        }
+
+        List<String> words() {
+            List<String> words = new ArrayList<>(base.size() + added.size());
+            for (String w : base) {
+                if (!removed.contains(w)) words.add(w);
+            }
+            words.addAll(added);
+            return words;
+        }
+    }
+
+    private final String dictionaryFilePath;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final Object writeLock = new Object();
+    private final EditDistance levenshtein = new EditDistance(false);
+    private final ExecutorService persister = daemonExecutor("spellchecker-persist");
+    private final ExecutorService merger = daemonExecutor("spellchecker-merge");
+    private DictionaryJournal journal;
+    private boolean compact;
+    private boolean merging;
+    private volatile int maxDistance = 1;
+    private volatile EditDistance rankingDistance = levenshtein;
+    private volatile boolean phoneticSuggestions = true;
+    private volatile int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+
+    public ConcurrentSpellChecker(String dictionaryFilePath) {
+        this.dictionaryFilePath = dictionaryFilePath;
+        load();
+    }
+
+    private static ExecutorService daemonExecutor(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void load() {
+        Set<String> base = new HashSet<>();
+        try {
+            if (CompactDictionary.isCompact(dictionaryFilePath)) {
+                base = CompactDictionary.open(dictionaryFilePath);
+                compact = true;
+            } else if (new File(dictionaryFilePath).exists()) {
+                DictionaryFiles.readWords(dictionaryFilePath, base::add);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading dictionary file: " + e.getMessage());
+        }
+        Set<String> added = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        Set<String> loaded = base;
+        journal = new DictionaryJournal(dictionaryFilePath);
+        try {
+            journal.replay(w -> {
+                removed.remove(w);
+                if (!loaded.contains(w)) added.add(w);
+            }, w -> {
+                added.remove(w);
+                if (loaded.contains(w)) removed.add(w);
+            });
+        } catch (IOException e) {
+            System.err.println("Error replaying dictionary journal: " + e.getMessage());
+        }
+        current.set(new Snapshot(base, buildIndex(base), buildPhonetic(base), added, removed, 0));
+    }
+
+    private SuggestionIndex buildIndex(Set<String> words) {
+        BKTreeIndex index = new BKTreeIndex((a, b) -> levenshtein.distance(a, b, Integer.MAX_VALUE));
+        for (String w : words) index.add(w);
+        return index;
+    }
+
+    private static PhoneticIndex buildPhonetic(Set<String> words) {
+        PhoneticIndex phonetic = new PhoneticIndex();
+        for (String w : words) phonetic.add(w);
+        return phonetic;
+    }
+
+    public long version() {
+        return current.get().version;
+    }
+
+    public void setMaxDistance(int maxDistance) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance must not be negative: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    public void setTranspositions(boolean transpositions) {
+        rankingDistance = transpositions ? new EditDistance(true) : levenshtein;
+    }
+
+    public void setPhoneticSuggestions(boolean phoneticSuggestions) {
+        this.phoneticSuggestions = phoneticSuggestions;
+    }
+
+    // Entries per snapshot; 0 disables caching.
+    public void setCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + capacity);
+        }
+        cacheCapacity = capacity;
+    }
+
+    public boolean contains(String word) {
+        return current.get().contains(word.toLowerCase());
+    }
+
+    public List<String> suggestWords(String input) {
+        return suggestWords(input, maxDistance);
+    }
+
+    // Same ranking as SpellChecker.suggestWords.
+    public List<String> suggestWords(String input, int maxDistance) {
+        Snapshot snap = current.get();
+        String in = input.toLowerCase();
+        EditDistance distance = rankingDistance;
+        boolean phonetic = phoneticSuggestions;
+        String key = maxDistance + (distance.allowsTranspositions() ? "t" : "") + (phonetic ? "p" : "") + ":" + in;
+        List<String> cached = snap.cache.get(key);
+        if (cached != null) return cached;
+        // The index is built on plain Levenshtein; a transposition counts as two edits there.
+        int radius = distance.allowsTranspositions() ? 2 * maxDistance : maxDistance;
+        List<String> candidates = new ArrayList<>();
+        for (String word : snap.index.search(in, radius)) {
+            if (!snap.removed.contains(word)) candidates.add(word);
+        }
+        candidates.addAll(snap.added);
+        List<String> soundAlikes = null;
+        if (phonetic) {
+            soundAlikes = new ArrayList<>();
+            for (String word : snap.phonetic.bucket(in)) {
+                if (!snap.removed.contains(word)) soundAlikes.add(word);
+            }
+            String code = PhoneticIndex.encode(in);
+            for (String word : snap.added) {
+                if (!code.isEmpty() && code.equals(PhoneticIndex.encode(word))) soundAlikes.add(word);
+            }
+        }
+        List<String> suggestions = Collections.unmodifiableList(
+                SpellChecker.rankSuggestions(in, candidates, soundAlikes, distance, maxDistance));
+        if (snap.cache.size() < cacheCapacity) snap.cache.put(key, suggestions);
+        return suggestions;
+    }
+
+    public boolean addWord(String word) {
+        return addWords(Collections.singletonList(word)) == 1;
+    }
+
+    public int addWords(Collection<String> words) {
+        List<String> changed = new ArrayList<>();
+        synchronized (writeLock) {
+            Snapshot snap = current.get();
+            Set<String> added = new HashSet<>(snap.added);
+            Set<String> removed = new HashSet<>(snap.removed);
+            for (String word : words) {
+                String w = word.trim().toLowerCase();
+                if (w.isEmpty() || added.contains(w) || (!removed.contains(w) && snap.base.contains(w))) continue;
+                if (!removed.remove(w)) added.add(w);
+                changed.add(w);
+            }
+            if (changed.isEmpty()) return 0;
+            publish(snap, added, removed);
+            // Queued under the lock so the journal sees changes in the order they were published.
+            persist(true, changed);
+        }
+        return changed.size();
+    }
+
+    public boolean removeWord(String word) {
+        String w = word.toLowerCase();
+        synchronized (writeLock) {
+            Snapshot snap = current.get();
+            if (!snap.contains(w)) return false;
+            Set<String> added = new HashSet<>(snap.added);
+            Set<String> removed = new HashSet<>(snap.removed);
+            if (!added.remove(w)) removed.add(w);
+            publish(snap, added, removed);
+            persist(false, Collections.singletonList(w));
+        }
+        return true;
+    }
+
+    private void publish(Snapshot snap, Set<String> added, Set<String> removed) {
+        Snapshot next = new Snapshot(snap.base, snap.index, snap.phonetic,
+                Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed), snap.version + 1);
+        current.set(next);
+        if (!merging && added.size() + removed.size() > MERGE_THRESHOLD) {
+            merging = true;
+            merger.execute(() -> merge(next));
+        }
+    }
+
+    // Builds a new base off the write path, then rebases whatever changed in the meantime onto it.
+    private void merge(Snapshot from) {
+        Set<String> base = new HashSet<>(from.words());
+        SuggestionIndex index = buildIndex(base);
+        PhoneticIndex phonetic = buildPhonetic(base);
+        synchronized (writeLock) {
+            Snapshot now = current.get();
+            Set<String> added = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+            for (String w : now.added) {
+                if (!base.contains(w)) added.add(w);
+            }
+            for (String w : now.removed) {
+                if (base.contains(w)) removed.add(w);
+            }
+            for (String w : from.added) {
+                if (base.contains(w) && !now.contains(w)) removed.add(w);
+            }
+            for (String w : from.removed) {
+                if (!base.contains(w) && now.contains(w)) added.add(w);
+            }
+            current.set(new Snapshot(Collections.unmodifiableSet(base), index, phonetic,
+                    Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed), now.version + 1));
+            merging = false;
+        }
+    }
+
+    private void persist(boolean added, List<String> words) {
+        persister.execute(() -> {
+            try {
+                if (added) {
+                    journal.logAdd(words);
+                } else {
+                    journal.logRemove(words);
+                }
+                journal.compactIfNeeded(() -> current.get().words(),
+                        (snapshot, path) -> DictionaryFiles.write(snapshot, path, compact));
+            } catch (IOException e) {
+                System.err.println("Error writing dictionary journal: " + e.getMessage());
+            }
+        });
+    }
+
+    // Waits for queued journal writes, then closes the journal.
+    public void close() {
+        persister.shutdown();
+        merger.shutdown();
+        try {
+            persister.awaitTermination(1, TimeUnit.MINUTES);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing dictionary journal: " + e.getMessage());
+        }
+    }
+}
+
+class SpellCorrectStage extends TokenStage {
+    private final SpellChecker checker;
+
+    public SpellCorrectStage(SpellChecker checker) {
+        this.checker = checker;
+    }
+
+    @Override
+    public void token(CharSequence text, int start, int end, boolean word) throws IOException {
+        if (!word) {
+            next.token(text, start, end, false);
+            return;
+        }
+        String corrected = checker.autoCorrect(text.subSequence(start, end).toString());
+        next.token(corrected, 0, corrected.length(), true);
+    }
+}
+
+class WordFrequencyStage extends TokenStage {
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    @Override
+    public void token(CharSequence text, int start, int end, boolean word) throws IOException {
+        if (word) {
+            counts.merge(text.subSequence(start, end).toString().toLowerCase(), 1, Integer::sum);
+        }
+        next.token(text, start, end, word);
+    }
+
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    public List<Map.Entry<String, Integer>> top(int n) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+}
+
+// Runs token stages in order over a single read / tokenize / write pass of the input.
+class TextPipeline {
+    private final List<TokenStage> stages = new ArrayList<>();
+
+    public TextPipeline add(TokenStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    public void run(String inputPath, String outputPath) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath))) {
+            TokenSink head = new WriterSink(writer);
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                stages.get(i).connect(head);
+                head = stages.get(i);
+            }
+            TextTokenizer tokenizer = new TextTokenizer();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tokenizer.reset(line);
+                while (tokenizer.next()) {
+                    head.token(line, tokenizer.start(), tokenizer.end(), tokenizer.isWord());
+                }
+                head.token("\n", 0, 1, false);
+            }
+            head.finish();
+            System.out.println("Pipeline output written to " + outputPath);
+        } catch (IOException e) {
+            System.err.println("Error running pipeline: " + e.getMessage());
+        }
+    }
 }
 
  class SpellCheckerTestApp {
@@ -264,7 +2254,12 @@ class CensorModule {
             System.out.println("5. Add expletive");
             System.out.println("6. Remove expletive");
             System.out.println("7. Censor file");
-            System.out.println("8. Exit");
+            System.out.println("8. Censor large file (streaming)");
+            System.out.println("9. Batch check file (non-interactive)");
+            System.out.println("10. Show suggestion cache stats");
+            System.out.println("11. Compile dictionary to compact format");
+            System.out.println("12. Clean file (spellcheck, censor and word stats in one pass)");
+            System.out.println("13. Exit");
             System.out.print("Choose an option: ");
             String choice = scanner.nextLine().trim();
             switch (choice) {
@@ -303,7 +2298,53 @@ class CensorModule {
                     cm.censorFile(inFile, outFile);
                     break;
                 case "8":
+                    System.out.print("Input file path: ");
+                    inFile = scanner.nextLine();
+                    System.out.print("Output file path: ");
+                    outFile = scanner.nextLine();
+                    cm.censorFileStreaming(inFile, outFile);
+                    break;
+                case "9":
+                    System.out.print("Input file path: ");
+                    inFile = scanner.nextLine();
+                    System.out.print("Report file path: ");
+                    String reportFile = scanner.nextLine();
+                    System.out.print("Corrected output path (blank to skip): ");
+                    outFile = scanner.nextLine().trim();
+                    sp.processFileBatch(inFile, reportFile, outFile.isEmpty() ? null : outFile);
+                    break;
+                case "10":
+                    System.out.println("Suggestion cache: " + sp.getSuggestionCache());
+                    break;
+                case "11":
+                    System.out.print("Text dictionary path: ");
+                    inFile = scanner.nextLine();
+                    System.out.print("Compact output path: ");
+                    outFile = scanner.nextLine();
+                    try {
+                        CompactDictionary.compile(inFile, outFile);
+                        System.out.println("Compact dictionary written to " + outFile);
+                    } catch (IOException e) {
+                        System.err.println("Error compiling dictionary: " + e.getMessage());
+                    }
+                    break;
+                case "12":
+                    System.out.print("Input file path: ");
+                    inFile = scanner.nextLine();
+                    System.out.print("Output file path: ");
+                    outFile = scanner.nextLine();
+                    WordFrequencyStage stats = new WordFrequencyStage();
+                    new TextPipeline()
+                            .add(new SpellCorrectStage(sp))
+                            .add(cm.newStage())
+                            .add(stats)
+                            .run(inFile, outFile);
+                    System.out.println("Most frequent words: " + stats.top(10));
+                    break;
+                case "13":
                     System.out.println("Exiting.");
+                    sp.close();
+                    cm.close();
                     scanner.close();
                     return;
                 default: